@@ -0,0 +1,47 @@
+package com.mycompany.sftp.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, the concurrent ones once per thread count of the <tt>threads</tt> system
+ * property (default <tt>1,4,16</tt>), writing JSON results to <tt>target/</tt>. Given any arguments, it behaves as
+ * the plain JMH command line instead.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            Main.main(args);
+            return;
+        }
+
+        for (String threads : System.getProperty("threads", "1,4,16").split(",")) {
+            int count = Integer.parseInt(threads.trim());
+            Options options = new OptionsBuilder()
+                    .include(PoolBorrowBenchmark.class.getSimpleName())
+                    .include(SmallFileUploadBenchmark.class.getSimpleName())
+                    .threads(count)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-result-" + count + "-threads.json")
+                    .build();
+            new Runner(options).run();
+        }
+
+        Options streaming = new OptionsBuilder()
+                .include(LargeFileStreamingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-result-streaming.json")
+                .build();
+        new Runner(streaming).run();
+    }
+}
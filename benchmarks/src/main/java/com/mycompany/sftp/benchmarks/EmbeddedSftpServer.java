@@ -0,0 +1,75 @@
+package com.mycompany.sftp.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+/**
+ * An Apache SSHD SFTP server on a free local port, serving a temporary directory that is removed when the server is
+ * closed.
+ */
+public final class EmbeddedSftpServer implements AutoCloseable {
+
+    public static final String USERNAME = "bench";
+    public static final String PASSWORD = "bench";
+
+    private final SshServer sshd;
+    private final Path home;
+    private final Path root;
+
+    private EmbeddedSftpServer(SshServer sshd, Path home) {
+        this.sshd = sshd;
+        this.home = home;
+        this.root = home.resolve("root");
+    }
+
+    public static EmbeddedSftpServer start() throws IOException {
+        Path home = Files.createTempDirectory("sftp-benchmark");
+        Path root = Files.createDirectories(home.resolve("root"));
+
+        SshServer sshd = SshServer.setUpDefaultServer();
+        sshd.setPort(0);
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(home.resolve("hostkey.ser")));
+        sshd.setPasswordAuthenticator((username, password, session) ->
+            USERNAME.equals(username) && PASSWORD.equals(password));
+        sshd.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        sshd.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        sshd.start();
+        return new EmbeddedSftpServer(sshd, home);
+    }
+
+    public int getPort() {
+        return sshd.getPort();
+    }
+
+    /**
+     * The local directory served as the root of the server.
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * A <tt>pooled-sftp</tt> uri of the directory on this server, with the given endpoint options appended.
+     */
+    public String uri(String directory, String options) {
+        return "pooled-sftp://localhost:" + getPort() + "/" + directory + "?username=" + USERNAME + "&password="
+               + PASSWORD + "&strictHostKeyChecking=no" + (options.isEmpty() ? "" : "&" + options);
+    }
+
+    @Override
+    public void close() throws IOException {
+        sshd.stop(true);
+        try (Stream<Path> files = Files.walk(home)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.mycompany.sftp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.ConsumerTemplate;
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time to upload a large local file, and to download it as a stream, pooled against the plain camel-ftp operations.
+ * The file size divided by the score is the streaming throughput; the GC profiler shows whether the heap allocated
+ * grows with the file size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LargeFileStreamingBenchmark {
+
+    private static final String FILE_NAME = "large.bin";
+
+    @Param({ "true", "false" })
+    public boolean pooled;
+
+    @Param({ "64" })
+    public int fileSizeMb;
+
+    private SftpBenchmarkSupport support;
+    private ProducerTemplate producerTemplate;
+    private ConsumerTemplate consumerTemplate;
+    private String uploadUri;
+    private String downloadUri;
+    private File localFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        support = SftpBenchmarkSupport.start();
+        producerTemplate = support.getProducerTemplate();
+        consumerTemplate = support.getConsumerTemplate();
+        uploadUri = support.uri("upload", pooled, 2, "");
+        downloadUri = support.uri("download", pooled, 2,
+                "fileName=" + FILE_NAME + "&noop=true&idempotent=false&streamDownload=true");
+
+        localFile = File.createTempFile("sftp-benchmark", ".bin");
+        writeRandomFile(localFile.toPath(), fileSizeMb);
+        Path remote = Files.createDirectories(support.getServer().getRoot().resolve("download"));
+        Files.copy(localFile.toPath(), remote.resolve(FILE_NAME));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        support.close();
+        Files.deleteIfExists(localFile.toPath());
+    }
+
+    private static void writeRandomFile(Path path, int sizeMb) throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            for (int i = 0; i < sizeMb; i++) {
+                ThreadLocalRandom.current().nextBytes(block);
+                out.write(block);
+            }
+        }
+    }
+
+    @Benchmark
+    public void upload() {
+        producerTemplate.sendBodyAndHeader(uploadUri, localFile, Exchange.FILE_NAME, FILE_NAME);
+    }
+
+    @Benchmark
+    public long download(Blackhole blackhole) throws IOException {
+        Exchange exchange = consumerTemplate.receive(downloadUri, 30000);
+        if (exchange == null) {
+            throw new IllegalStateException("No file received from " + downloadUri);
+        }
+        long total = 0;
+        try (InputStream in = exchange.getIn().getBody(InputStream.class)) {
+            byte[] buffer = new byte[32 * 1024];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                blackhole.consume(buffer);
+                total += n;
+            }
+        } finally {
+            consumerTemplate.doneUoW(exchange);
+        }
+        return total;
+    }
+}
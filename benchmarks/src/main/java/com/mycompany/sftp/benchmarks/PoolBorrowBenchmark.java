@@ -0,0 +1,70 @@
+package com.mycompany.sftp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mycompany.sftp.component.PooledSftpEndpoint;
+import com.mycompany.sftp.component.PooledSftpOperations;
+import com.mycompany.sftp.pool.SftpConnection;
+import com.mycompany.sftp.pool.SftpConnectionPool;
+
+/**
+ * The overhead the pool adds to every operation, without any round-trip to the server: borrowing and returning a
+ * connection, and a whole <tt>doWithConnection</tt> around an operation answered locally by the channel. Run with the
+ * GC profiler, <tt>gc.alloc.rate.norm</tt> is the garbage made per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoolBorrowBenchmark {
+
+    @Param({ "1", "4", "16" })
+    public int poolSize;
+
+    private SftpBenchmarkSupport support;
+    private PooledSftpEndpoint endpoint;
+    private SftpConnectionPool pool;
+    private PooledSftpOperations operations;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        support = SftpBenchmarkSupport.start();
+        endpoint = support.endpoint(support.uri("borrow", true, poolSize, ""));
+        pool = endpoint.getConnectionPool();
+        operations = (PooledSftpOperations) endpoint.createRemoteFileOperations();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        support.close();
+    }
+
+    @Benchmark
+    public SftpConnection borrowAndReturn() throws Exception {
+        SftpConnection connection = endpoint.borrowConnection();
+        pool.returnObject(connection);
+        return connection;
+    }
+
+    @Benchmark
+    public String doWithConnection() {
+        // the channel answers pwd from its own state
+        return operations.getCurrentDirectory();
+    }
+}
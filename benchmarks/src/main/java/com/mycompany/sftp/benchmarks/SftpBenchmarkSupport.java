@@ -0,0 +1,72 @@
+package com.mycompany.sftp.benchmarks;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.ConsumerTemplate;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.impl.DefaultCamelContext;
+
+import com.mycompany.sftp.component.PooledSftpComponent;
+import com.mycompany.sftp.component.PooledSftpEndpoint;
+
+/**
+ * A started Camel context with the <tt>pooled-sftp</tt> component, talking to an {@link EmbeddedSftpServer}.
+ */
+public final class SftpBenchmarkSupport implements AutoCloseable {
+
+    private final EmbeddedSftpServer server;
+    private final CamelContext context;
+    private final ProducerTemplate producerTemplate;
+    private final ConsumerTemplate consumerTemplate;
+
+    private SftpBenchmarkSupport(EmbeddedSftpServer server, CamelContext context) {
+        this.server = server;
+        this.context = context;
+        this.producerTemplate = context.createProducerTemplate();
+        this.consumerTemplate = context.createConsumerTemplate();
+    }
+
+    public static SftpBenchmarkSupport start() throws Exception {
+        EmbeddedSftpServer server = EmbeddedSftpServer.start();
+        CamelContext context = new DefaultCamelContext();
+        context.addComponent("pooled-sftp", new PooledSftpComponent());
+        context.start();
+        return new SftpBenchmarkSupport(server, context);
+    }
+
+    /**
+     * The uri of the directory on the server. Without <tt>pooled</tt> the endpoint uses the plain camel-ftp
+     * operations, with a connection per producer.
+     */
+    public String uri(String directory, boolean pooled, int poolSize, String options) {
+        String pooling = pooled
+                ? "useConnectionPool=true&sharedPool=false&poolConfig.maxTotal=" + poolSize + "&poolConfig.maxIdle="
+                  + poolSize + "&warmUpSize=" + poolSize
+                : "useConnectionPool=false";
+        return server.uri(directory, options.isEmpty() ? pooling : pooling + "&" + options);
+    }
+
+    public PooledSftpEndpoint endpoint(String uri) {
+        return context.getEndpoint(uri, PooledSftpEndpoint.class);
+    }
+
+    public EmbeddedSftpServer getServer() {
+        return server;
+    }
+
+    public ProducerTemplate getProducerTemplate() {
+        return producerTemplate;
+    }
+
+    public ConsumerTemplate getConsumerTemplate() {
+        return consumerTemplate;
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            context.close();
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.mycompany.sftp.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of small uploads through a producer, pooled against the plain camel-ftp operations. Every benchmark
+ * thread overwrites its own file, so the server's directory does not grow during the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SmallFileUploadBenchmark {
+
+    @Param({ "true", "false" })
+    public boolean pooled;
+
+    @Param({ "4", "16" })
+    public int poolSize;
+
+    @Param({ "1024", "65536" })
+    public int fileSize;
+
+    private SftpBenchmarkSupport support;
+    private ProducerTemplate template;
+    private String uri;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        support = SftpBenchmarkSupport.start();
+        template = support.getProducerTemplate();
+        uri = support.uri("upload", pooled, poolSize, "");
+        body = new byte[fileSize];
+        ThreadLocalRandom.current().nextBytes(body);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        support.close();
+    }
+
+    @State(Scope.Thread)
+    public static class FileName {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        public final String name = "small-" + THREADS.incrementAndGet() + ".bin";
+    }
+
+    @Benchmark
+    public void upload(FileName fileName) {
+        template.sendBodyAndHeader(uri, body, Exchange.FILE_NAME, fileName.name);
+    }
+}
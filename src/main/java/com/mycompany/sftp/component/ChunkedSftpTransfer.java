@@ -0,0 +1,387 @@
+package com.mycompany.sftp.component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+import org.apache.camel.Exchange;
+import org.apache.camel.component.file.FileComponent;
+import org.apache.camel.component.file.GenericFile;
+import org.apache.camel.component.file.GenericFileExist;
+import org.apache.camel.component.file.GenericFileOperationFailedException;
+import org.apache.camel.component.file.GenericFileOperations;
+import org.apache.camel.component.file.remote.FtpConstants;
+import org.apache.camel.util.FileUtil;
+import org.apache.camel.util.ObjectHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mycompany.sftp.pool.SftpConnection;
+import com.mycompany.sftp.pool.SftpConnectionPool;
+
+/**
+ * Transfers large files as byte ranges in parallel, each range over its own borrowed pooled connection.
+ */
+class ChunkedSftpTransfer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedSftpTransfer.class);
+
+    private final PooledSftpEndpoint endpoint;
+    private final PooledSftpConfiguration configuration;
+
+    ChunkedSftpTransfer(PooledSftpEndpoint endpoint) {
+        this.endpoint = endpoint;
+        this.configuration = (PooledSftpConfiguration) endpoint.getConfiguration();
+    }
+
+    /**
+     * Whether a file of the given size should be downloaded in chunks.
+     */
+    boolean isChunkedDownload(long size) {
+        return configuration.getChunkedDownloadThreshold() > 0 && size >= configuration.getChunkedDownloadThreshold()
+                && ObjectHelper.isNotEmpty(endpoint.getLocalWorkDirectory());
+    }
+
+    /**
+     * Downloads the remote file into the local work directory, writing the ranges fetched in parallel at their
+     * position in the local file. Like the regular local work directory download, the data is written to an
+     * <tt>.inprogress</tt> file which is renamed once the size of the local file has been verified.
+     */
+    boolean retrieveFile(String name, Exchange exchange, long size) throws GenericFileOperationFailedException {
+        GenericFile<?> file = exchange.getProperty(FileComponent.FILE_EXCHANGE_FILE, GenericFile.class);
+        ObjectHelper.notNull(file, "Exchange should have the " + FileComponent.FILE_EXCHANGE_FILE + " set");
+
+        File local = new File(endpoint.getLocalWorkDirectory(), file.getRelativeFilePath());
+        File temp = new File(local.getPath() + ".inprogress");
+        prepareLocalWorkFile(local, temp);
+        exchange.getIn().setHeader(FtpConstants.FILE_LOCAL_WORK_PATH, local.getPath());
+
+        long chunkSize = Math.max(1, configuration.getChunkSize());
+        long start = System.nanoTime();
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<Long>> parts = new ArrayList<>();
+            ExecutorService executor = endpoint.getChunkedTransferExecutorService();
+            for (long offset = 0; offset < size; offset += chunkSize) {
+                final long position = offset;
+                final long length = Math.min(chunkSize, size - offset);
+                parts.add(executor.submit(() -> withRetries(name, position, () -> downloadRange(name, out, position, length))));
+            }
+            awaitParts(parts, name);
+
+            if (out.size() != size) {
+                throw new GenericFileOperationFailedException(
+                        "Chunked download of " + name + " has size " + out.size() + " but expected " + size);
+            }
+        } catch (IOException e) {
+            FileUtil.deleteFile(temp);
+            throw new GenericFileOperationFailedException("Cannot write local work file: " + temp, e);
+        } catch (RuntimeException e) {
+            FileUtil.deleteFile(temp);
+            throw e;
+        }
+        LOG.debug("Retrieved {} ({} bytes) in chunks of {} bytes in {} ms", name, size, chunkSize,
+                (System.nanoTime() - start) / 1_000_000);
+
+        try {
+            if (!FileUtil.renameFile(temp, local, false)) {
+                throw new GenericFileOperationFailedException("Cannot rename local work file from: " + temp + " to: " + local);
+            }
+        } catch (IOException e) {
+            throw new GenericFileOperationFailedException("Cannot rename local work file from: " + temp + " to: " + local, e);
+        }
+
+        // store the java.io.File handle as the body
+        file.setBody(local);
+        return true;
+    }
+
+    private long downloadRange(String name, FileChannel out, long offset, long length) throws Exception {
+        return doWithConnection(connection -> {
+            byte[] buffer = new byte[Math.max(4096, endpoint.getBufferSize())];
+            long copied = 0;
+            try (InputStream in = connection.getChannel().get(name, null, offset)) {
+                while (copied < length) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, length - copied));
+                    if (n < 0) {
+                        break;
+                    }
+                    ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+                    long position = offset + copied;
+                    while (bb.hasRemaining()) {
+                        position += out.write(bb, position);
+                    }
+                    copied += n;
+                }
+            }
+            if (copied != length) {
+                throw new IOException("Unexpected end of " + name + " at offset " + (offset + copied)
+                                      + ", expected " + length + " bytes from offset " + offset);
+            }
+            LOG.trace("Retrieved range [{}, {}) of {}", offset, offset + length, name);
+            return copied;
+        });
+    }
+
+    /**
+     * Whether the message body should be uploaded in chunks, returning the local file to upload or <tt>null</tt>.
+     */
+    File getChunkedUploadFile(Exchange exchange) {
+        if (configuration.getChunkedUploadThreshold() <= 0 || endpoint.getFileExist() == GenericFileExist.Append
+                || endpoint.getCharset() != null || endpoint.isKeepLastModified()) {
+            return null;
+        }
+        Object body = exchange.getIn().getBody();
+        if (body instanceof GenericFile && ((GenericFile<?>) body).getCharset() != null) {
+            // the file is decoded and encoded again by the store
+            return null;
+        }
+        if (body instanceof GenericFile && ((GenericFile<?>) body).getFile() instanceof File) {
+            body = ((GenericFile<?>) body).getFile();
+        }
+        if (body instanceof File && ((File) body).isFile() && ((File) body).length() >= configuration.getChunkedUploadThreshold()) {
+            return (File) body;
+        }
+        return null;
+    }
+
+    /**
+     * Uploads the local file as byte ranges written in parallel at their offset into a temporary remote file, which
+     * is renamed to the target name once all ranges are written and its size has been verified. Failed ranges are
+     * retried on their own without restarting the whole transfer.
+     * <p>
+     * An existing target file is handled as by a regular store: it is kept with <tt>fileExist=Ignore</tt>, fails the
+     * upload with <tt>fileExist=Fail</tt> and is moved away first with <tt>fileExist=Move</tt>, before any range is
+     * written. When the producer uses a <tt>tempPrefix</tt> or <tt>tempFileName</tt>, the name given is already its
+     * temporary file, so the ranges are written to it directly and the producer renames it to the target.
+     */
+    boolean storeFile(String name, File local, GenericFileOperations<?> operations)
+            throws GenericFileOperationFailedException {
+        GenericFileExist fileExist = endpoint.getFileExist();
+        if (fileExist == GenericFileExist.Ignore || fileExist == GenericFileExist.Fail
+                || fileExist == GenericFileExist.Move) {
+            if (operations.existsFile(name)) {
+                if (fileExist == GenericFileExist.Ignore) {
+                    // ignore but indicate that the file was written
+                    LOG.trace("An existing file already exists: {}. Ignore and do not override it.", name);
+                    return true;
+                } else if (fileExist == GenericFileExist.Fail) {
+                    throw new GenericFileOperationFailedException("File already exist: " + name + ". Cannot write new file.");
+                }
+                endpoint.getMoveExistingFileStrategy().moveExistingFile(endpoint, operations, name);
+            }
+        }
+
+        long size = local.length();
+        boolean inPlace = isProducerTempName();
+        String temp = inPlace ? name : createTempName(name);
+        long chunkSize = Math.max(1, configuration.getChunkSize());
+        long start = System.nanoTime();
+
+        try (FileChannel in = FileChannel.open(local.toPath(), StandardOpenOption.READ)) {
+            // write the last byte first so the remote file has its final size while the ranges are written,
+            // which keeps the resume offset used to position each range constant
+            doWithConnection(connection -> {
+                writeRange(connection, in, temp, size - 1, 1, size, ChannelSftp.OVERWRITE);
+                return null;
+            });
+
+            List<Future<Long>> parts = new ArrayList<>();
+            ExecutorService executor = endpoint.getChunkedTransferExecutorService();
+            for (long offset = 0; offset < size; offset += chunkSize) {
+                final long position = offset;
+                final long length = Math.min(chunkSize, size - offset);
+                parts.add(executor.submit(() -> withRetries(name, position,
+                        () -> uploadRange(in, temp, position, length, size))));
+            }
+            awaitParts(parts, name);
+
+            doWithConnection(connection -> {
+                finishUpload(connection.getChannel(), temp, name, size, fileExist);
+                return null;
+            });
+        } catch (Exception e) {
+            if (!inPlace) {
+                deleteQuietly(temp);
+            }
+            if (e instanceof GenericFileOperationFailedException) {
+                throw (GenericFileOperationFailedException) e;
+            }
+            throw new GenericFileOperationFailedException("Chunked upload of " + local + " to " + name + " failed", e);
+        }
+        LOG.debug("Stored {} ({} bytes) in chunks of {} bytes in {} ms", name, size, chunkSize,
+                (System.nanoTime() - start) / 1_000_000);
+        return true;
+    }
+
+    private long uploadRange(FileChannel in, String temp, long offset, long length, long size) throws Exception {
+        return doWithConnection(connection -> writeRange(connection, in, temp, offset, length, size, ChannelSftp.RESUME));
+    }
+
+    /**
+     * Writes a range of the local file at the same offset in the remote file. In {@link ChannelSftp#RESUME} mode JSCH
+     * opens the file without truncating it and adds the current remote size to the offset, which is compensated for
+     * as the remote file already has its final size.
+     */
+    private long writeRange(SftpConnection connection, FileChannel in, String temp, long offset, long length, long size,
+                            int mode) throws Exception {
+        long remoteOffset = mode == ChannelSftp.RESUME ? offset - size : offset;
+        byte[] buffer = new byte[Math.max(4096, endpoint.getBufferSize())];
+        long copied = 0;
+        try (OutputStream out = connection.getChannel().put(temp, null, mode, remoteOffset)) {
+            while (copied < length) {
+                ByteBuffer bb = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, length - copied));
+                int n = in.read(bb, offset + copied);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of local file at offset " + (offset + copied));
+                }
+                out.write(buffer, 0, n);
+                copied += n;
+            }
+        }
+        LOG.trace("Stored range [{}, {}) of {}", offset, offset + length, temp);
+        return copied;
+    }
+
+    private void finishUpload(ChannelSftp channel, String temp, String name, long size, GenericFileExist fileExist)
+            throws SftpException {
+        long remoteSize = channel.stat(temp).getSize();
+        if (remoteSize != size) {
+            throw new GenericFileOperationFailedException(
+                    "Chunked upload of " + name + " has remote size " + remoteSize + " but expected " + size);
+        }
+        if (!temp.equals(name)) {
+            try {
+                channel.rename(temp, name);
+            } catch (SftpException e) {
+                // SFTP servers typically refuse to rename over an existing file, which is only replaced when
+                // overriding, as with the other modes it was checked for before the upload
+                boolean override = fileExist != GenericFileExist.Ignore && fileExist != GenericFileExist.Fail
+                        && fileExist != GenericFileExist.Move;
+                if (!override || !exists(channel, name)) {
+                    throw e;
+                }
+                LOG.trace("Deleting existing file {} before renaming {}", name, temp);
+                channel.rm(name);
+                channel.rename(temp, name);
+            }
+        }
+        String chmod = configuration.getChmod();
+        if (ObjectHelper.isNotEmpty(chmod)) {
+            LOG.debug("Setting chmod: {} on file: {}", chmod, name);
+            channel.chmod(Integer.parseInt(chmod, 8), name);
+        }
+    }
+
+    private static boolean exists(ChannelSftp channel, String name) {
+        try {
+            channel.lstat(name);
+            return true;
+        } catch (SftpException e) {
+            return false;
+        }
+    }
+
+    private void deleteQuietly(String temp) {
+        try {
+            doWithConnection(connection -> {
+                connection.getChannel().rm(temp);
+                return null;
+            });
+        } catch (Exception e) {
+            LOG.debug("Cannot delete temporary file {} of failed chunked upload due {}", temp, e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the producer stores to a temporary name of its own, which it renames to the target after the store.
+     */
+    private boolean isProducerTempName() {
+        return endpoint.getTempPrefix() != null || endpoint.getTempFileName() != null;
+    }
+
+    private static String createTempName(String name) {
+        int idx = name.lastIndexOf('/');
+        return name.substring(0, idx + 1) + "." + name.substring(idx + 1) + ".part";
+    }
+
+    private <T> T withRetries(String name, long offset, Callable<T> task) throws Exception {
+        int attempt = 0;
+        while (true) {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                if (attempt >= configuration.getChunkRetries() || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                attempt++;
+                LOG.debug("Retrying range at offset {} of {} (attempt {}) due {}", offset, name, attempt, e.getMessage());
+                Thread.sleep(100L * attempt);
+            }
+        }
+    }
+
+    private <T> T doWithConnection(ConnectionCallback<T> callback) throws Exception {
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        SftpConnection connection = endpoint.borrowConnection();
+        try {
+            T answer = callback.doWithConnection(connection);
+            pool.returnObject(connection);
+            return answer;
+        } catch (Exception e) {
+            pool.invalidateObject(connection);
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ConnectionCallback<T> {
+        T doWithConnection(SftpConnection connection) throws Exception;
+    }
+
+    private static void awaitParts(List<Future<Long>> parts, String name) {
+        try {
+            for (Future<Long> part : parts) {
+                part.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            parts.forEach(p -> p.cancel(true));
+            throw new GenericFileOperationFailedException("Interrupted during chunked transfer of " + name, e);
+        } catch (ExecutionException e) {
+            parts.forEach(p -> p.cancel(true));
+            throw new GenericFileOperationFailedException("Chunked transfer of " + name + " failed", e.getCause());
+        }
+    }
+
+    private static void prepareLocalWorkFile(File local, File temp) {
+        try {
+            File dir = local.getParentFile();
+            if (dir != null) {
+                dir.mkdirs();
+            }
+            if (temp.exists() && !FileUtil.deleteFile(temp)) {
+                throw new GenericFileOperationFailedException("Cannot delete existing local work file: " + temp);
+            }
+            if (local.exists() && !FileUtil.deleteFile(local)) {
+                throw new GenericFileOperationFailedException("Cannot delete existing local work file: " + local);
+            }
+            if (!temp.createNewFile()) {
+                throw new GenericFileOperationFailedException("Cannot create new local work file: " + temp);
+            }
+        } catch (IOException e) {
+            throw new GenericFileOperationFailedException("Cannot create new local work file: " + local, e);
+        }
+    }
+}
@@ -1,34 +1,71 @@
 package com.mycompany.sftp.component;
 
-import java.lang.reflect.Field;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.Proxy;
 import com.jcraft.jsch.Session;
 import org.apache.camel.component.file.remote.SftpOperations;
 
+import com.mycompany.sftp.pool.SftpConnection;
+
 public class InjectableSftpOperations extends SftpOperations {
-    
+
+    // resolved once, the private fields are then accessed without reflection on every call
+    private static final VarHandle SESSION;
+    private static final VarHandle CHANNEL;
+
+    /**
+     * The payload of an SFTP write packet JSch sends at most, so one read fills a packet.
+     */
+    static final int TRANSFER_BUFFER_SIZE = 32 * 1024;
+
+    private ByteBuffer transferBuffer;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(SftpOperations.class, MethodHandles.lookup());
+            SESSION = lookup.findVarHandle(SftpOperations.class, "session", Session.class);
+            CHANNEL = lookup.findVarHandle(SftpOperations.class, "channel", ChannelSftp.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     public InjectableSftpOperations(Proxy proxy) {
         super(proxy);
     }
 
+    /**
+     * Creates operations permanently bound to the session and channel of the given pooled connection.
+     */
+    public InjectableSftpOperations(Proxy proxy, SftpConnection connection) {
+        super(proxy);
+        setSession(connection.getSession());
+        setChannel(connection.getChannel());
+    }
+
     public void setSession(Session session) {
-        try {
-            Field f = SftpOperations.class.getDeclaredField("session");
-            f.setAccessible(true);
-            f.set(this, session);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to inject session via reflection", e);
-        }
+        SESSION.set(this, session);
     }
 
     public void setChannel(ChannelSftp channel) {
-        try {
-            Field f = SftpOperations.class.getDeclaredField("channel");
-            f.setAccessible(true);
-            f.set(this, channel);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to inject channel via reflection", e);
+        CHANNEL.set(this, channel);
+    }
+
+    public ChannelSftp getChannel() {
+        return (ChannelSftp) CHANNEL.get(this);
+    }
+
+    /**
+     * A direct buffer of {@link #TRANSFER_BUFFER_SIZE} bytes to read uploaded files through, allocated on first use
+     * and reused for every upload over this connection. Only the borrower of the connection may use it.
+     */
+    ByteBuffer getTransferBuffer() {
+        if (transferBuffer == null) {
+            transferBuffer = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
         }
+        return transferBuffer;
     }
 }
@@ -0,0 +1,203 @@
+package com.mycompany.sftp.component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.camel.component.file.GenericFileOperationFailedException;
+import org.apache.camel.component.file.remote.SftpRemoteFile;
+import org.apache.camel.util.FileUtil;
+import org.apache.camel.util.ObjectHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks a remote directory tree listing sibling directories concurrently, each over its own pooled connection.
+ * <p>
+ * The listings of the directories to descend into are submitted to the executor ahead of the walk, in the order they
+ * will be visited, and at most a few per thread of the executor at a time. So the listings held in memory are
+ * bounded, and the executor queue never fills up, which would make the walking thread list directories itself. The
+ * entries are visited on the calling thread in the same depth-first order as a sequential walk, so the result does
+ * not depend on which listing completes first.
+ */
+class ParallelDirectoryWalker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelDirectoryWalker.class);
+
+    /**
+     * How many listings per thread of the executor are submitted ahead of the walk.
+     */
+    static final int LISTINGS_PER_THREAD = 4;
+
+    /**
+     * Receives the entries of the walk, always on the thread calling {@link #walk(String, int, Visitor)}.
+     */
+    interface Visitor {
+
+        /**
+         * Whether to descend into the directory found at the given depth.
+         */
+        boolean acceptDirectory(String parentPath, SftpRemoteFile directory, int depth, SftpRemoteFile[] siblings);
+
+        /**
+         * Visits a file found at the given depth.
+         */
+        void visitFile(String parentPath, SftpRemoteFile file, int depth, SftpRemoteFile[] siblings);
+
+        /**
+         * Whether the walk should go on.
+         */
+        boolean canContinue();
+
+        /**
+         * Whether a directory that cannot be listed should be skipped rather than failing the walk.
+         */
+        boolean ignoreListingFailure(String path, GenericFileOperationFailedException cause);
+    }
+
+    private final PooledSftpOperations operations;
+    private final ExecutorService executor;
+    private final int maxOutstanding;
+    private final boolean preSort;
+    // the listings to submit, the one visited first at the head
+    private final Deque<Listing> deferred = new ArrayDeque<>();
+    // the listings submitted and not yet visited
+    private final List<Listing> outstanding = new ArrayList<>();
+
+    /**
+     * @param parallelism the number of threads of the executor, at most {@value #LISTINGS_PER_THREAD} times as many
+     *                    listings are submitted ahead of the walk
+     */
+    ParallelDirectoryWalker(PooledSftpOperations operations, ExecutorService executor, int parallelism,
+                            boolean preSort) {
+        this.operations = operations;
+        this.executor = executor;
+        this.maxOutstanding = Math.max(1, parallelism) * LISTINGS_PER_THREAD;
+        this.preSort = preSort;
+    }
+
+    /**
+     * Walks the tree below the given directory, which is at the given depth.
+     *
+     * @return <tt>false</tt> if the walk was stopped by the visitor
+     */
+    boolean walk(String path, int depth, Visitor visitor) {
+        try {
+            return walkDirectory(new Listing(FileUtil.stripTrailingSeparator(path)), depth, visitor);
+        } finally {
+            // stopped early, do not list what will not be visited
+            for (Listing listing : outstanding) {
+                listing.future.cancel(false);
+            }
+            outstanding.clear();
+            deferred.clear();
+        }
+    }
+
+    private boolean walkDirectory(Listing listing, int depth, Visitor visitor) {
+        SftpRemoteFile[] files = await(listing, visitor);
+        if (files == null || files.length == 0) {
+            LOG.trace("No files found in directory: {}", listing.path);
+            return true;
+        }
+        if (preSort) {
+            Arrays.sort(files, Comparator.comparing(SftpRemoteFile::getFilename));
+        }
+
+        int entryDepth = depth + 1;
+        Listing[] subListings = new Listing[files.length];
+        for (int i = 0; i < files.length; i++) {
+            SftpRemoteFile file = files[i];
+            if (file.isDirectory() && !isDotDirectory(file)
+                    && visitor.acceptDirectory(listing.path, file, entryDepth, files)) {
+                subListings[i] = new Listing(childPath(listing.path, file));
+            }
+        }
+        // the sub directories are visited before the remaining siblings of the parents, so they are listed first
+        for (int i = files.length - 1; i >= 0; i--) {
+            if (subListings[i] != null) {
+                deferred.addFirst(subListings[i]);
+            }
+        }
+        submitDeferred();
+
+        for (int i = 0; i < files.length; i++) {
+            if (!visitor.canContinue()) {
+                return false;
+            }
+            SftpRemoteFile file = files[i];
+            if (subListings[i] != null) {
+                if (!walkDirectory(subListings[i], entryDepth, visitor)) {
+                    return false;
+                }
+            } else if (!file.isDirectory()) {
+                visitor.visitFile(listing.path, file, entryDepth, files);
+            }
+        }
+        return true;
+    }
+
+    private void submitDeferred() {
+        while (outstanding.size() < maxOutstanding && !deferred.isEmpty()) {
+            submit(deferred.pollFirst());
+        }
+    }
+
+    private void submit(Listing listing) {
+        listing.future = executor.submit(() -> operations.listFiles(listing.path));
+        outstanding.add(listing);
+    }
+
+    private SftpRemoteFile[] await(Listing listing, Visitor visitor) {
+        if (listing.future == null) {
+            // the listings taking up the room are of directories visited later, this one cannot wait for them
+            deferred.remove(listing);
+            submit(listing);
+        }
+        try {
+            return listing.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericFileOperationFailedException("Interrupted while listing directory: " + listing.path, e);
+        } catch (ExecutionException e) {
+            GenericFileOperationFailedException cause = e.getCause() instanceof GenericFileOperationFailedException
+                    ? (GenericFileOperationFailedException) e.getCause()
+                    : new GenericFileOperationFailedException("Cannot list directory: " + listing.path, e.getCause());
+            if (visitor.ignoreListingFailure(listing.path, cause)) {
+                LOG.debug("Cannot list files in directory {} due directory does not exist or file permission error.",
+                        listing.path);
+                return null;
+            }
+            throw cause;
+        } finally {
+            outstanding.remove(listing);
+            submitDeferred();
+        }
+    }
+
+    private static boolean isDotDirectory(SftpRemoteFile file) {
+        return ".".equals(file.getFilename()) || "..".equals(file.getFilename());
+    }
+
+    private static String childPath(String path, SftpRemoteFile file) {
+        return ObjectHelper.isNotEmpty(path) ? path + "/" + file.getFilename() : file.getFilename();
+    }
+
+    /**
+     * The listing of a directory, submitted to the executor once there is room for it.
+     */
+    private static final class Listing {
+        private final String path;
+        private Future<SftpRemoteFile[]> future;
+
+        private Listing(String path) {
+            this.path = path;
+        }
+    }
+}
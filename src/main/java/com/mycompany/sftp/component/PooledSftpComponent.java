@@ -12,9 +12,13 @@ import org.apache.camel.component.file.remote.SftpRemoteFile;
 import org.apache.camel.spi.annotations.Component;
 import org.apache.camel.util.StringHelper;
 
+import com.mycompany.sftp.pool.SftpConnectionPoolRegistry;
+
 @Component("pooled-sftp")
 public class PooledSftpComponent extends SftpComponent {
 
+    private final SftpConnectionPoolRegistry poolRegistry = new SftpConnectionPoolRegistry();
+
     public PooledSftpComponent() {
     }
 
@@ -39,4 +43,17 @@ public class PooledSftpComponent extends SftpComponent {
 
         return new PooledSftpEndpoint(uri, this, config);
     }
+
+    /**
+     * The registry of connection pools shared by the endpoints of this component.
+     */
+    public SftpConnectionPoolRegistry getPoolRegistry() {
+        return poolRegistry;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        poolRegistry.closeAll();
+    }
 }
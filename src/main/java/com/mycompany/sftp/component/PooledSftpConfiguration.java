@@ -6,6 +6,8 @@ import org.apache.camel.spi.UriParam;
 import org.apache.camel.spi.UriParams;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import com.mycompany.sftp.pool.SftpConnection;
+import com.mycompany.sftp.pool.SftpHostSelection;
+import com.mycompany.sftp.pool.SftpValidationStrategy;
 
 @UriParams
 public class PooledSftpConfiguration extends SftpConfiguration {
@@ -14,6 +16,98 @@ public class PooledSftpConfiguration extends SftpConfiguration {
     private boolean useConnectionPool;
     @UriParam(label = "pooling")
     private GenericObjectPoolConfig<SftpConnection> poolConfig;
+    @UriParam(label = "pooling", defaultValue = "false")
+    private boolean sharedPool;
+    @UriParam(label = "pooling", defaultValue = "1")
+    private int channelsPerSession = 1;
+    @UriParam(label = "consumer,pooling", defaultValue = "false")
+    private boolean pollAffinity;
+    @UriParam(label = "pooling")
+    private String bulkhead;
+    @UriParam(label = "pooling", defaultValue = "0")
+    private int bulkheadReserved;
+    @UriParam(label = "pooling", defaultValue = "0")
+    private int bulkheadMax;
+    @UriParam(label = "pooling", defaultValue = "0")
+    private int bulkheadPriority;
+    @UriParam(label = "pooling", defaultValue = "CONNECTED")
+    private SftpValidationStrategy validationStrategy = SftpValidationStrategy.CONNECTED;
+    @UriParam(label = "pooling", defaultValue = "30000", javaType = "java.time.Duration")
+    private long validationInterval = 30000;
+    @UriParam(label = "producer,advanced", defaultValue = "0", javaType = "java.time.Duration")
+    private long directoryCacheTtl;
+    @UriParam(label = "producer,advanced", defaultValue = "1000")
+    private int directoryCacheSize = 1000;
+    @UriParam(label = "pooling", defaultValue = "0")
+    private int circuitBreakerThreshold;
+    @UriParam(label = "pooling", defaultValue = "1000", javaType = "java.time.Duration")
+    private long circuitBreakerBackoff = 1000;
+    @UriParam(label = "pooling", defaultValue = "60000", javaType = "java.time.Duration")
+    private long circuitBreakerMaxBackoff = 60000;
+    @UriParam(label = "pooling", defaultValue = "0")
+    private int maxConcurrentConnects;
+    @UriParam(label = "pooling")
+    private String hosts;
+    @UriParam(label = "pooling", defaultValue = "LEAST_ACTIVE")
+    private SftpHostSelection hostSelection = SftpHostSelection.LEAST_ACTIVE;
+    @UriParam(label = "pooling", defaultValue = "3")
+    private int hostEjectionThreshold = 3;
+    @UriParam(label = "pooling", defaultValue = "10000", javaType = "java.time.Duration")
+    private long hostEjectionBackoff = 10000;
+    @UriParam(label = "pooling", defaultValue = "300000", javaType = "java.time.Duration")
+    private long hostMaxEjectionBackoff = 300000;
+    @UriParam(label = "pooling", defaultValue = "30000", javaType = "java.time.Duration")
+    private long hostSlowStart = 30000;
+    @UriParam(label = "pooling", defaultValue = "false")
+    private boolean adaptivePoolSizing;
+    @UriParam(label = "pooling", defaultValue = "1")
+    private int adaptiveMinTotal = 1;
+    @UriParam(label = "pooling", defaultValue = "1000", javaType = "java.time.Duration")
+    private long adaptiveInterval = 1000;
+    @UriParam(label = "pooling", defaultValue = "50", javaType = "java.time.Duration")
+    private long adaptiveTargetBorrowWait = 50;
+    @UriParam(label = "pooling", defaultValue = "0")
+    private int warmUpSize;
+    @UriParam(label = "pooling", defaultValue = "2")
+    private int warmUpConcurrency = 2;
+    @UriParam(label = "advanced", defaultValue = "false")
+    private boolean metrics;
+    @UriParam(label = "consumer,advanced", defaultValue = "0")
+    private int listingPageSize;
+    @UriParam(label = "consumer,advanced", defaultValue = "0")
+    private int walkParallelism;
+    @UriParam(label = "consumer,advanced", defaultValue = "0")
+    private int downloadParallelism;
+    @UriParam(label = "consumer,advanced", defaultValue = "true")
+    private boolean orderedHandOff = true;
+    @UriParam(label = "consumer,advanced", defaultValue = "0")
+    private long chunkedDownloadThreshold;
+    @UriParam(label = "consumer,advanced")
+    private String remoteStateIndexFile;
+    @UriParam(label = "producer,advanced", defaultValue = "0")
+    private long chunkedUploadThreshold;
+    @UriParam(label = "producer", defaultValue = "false")
+    private boolean asyncProducer;
+    @UriParam(label = "producer", defaultValue = "0")
+    private int asyncMaxInFlight;
+    @UriParam(label = "producer")
+    private String spoolDirectory;
+    @UriParam(label = "producer", defaultValue = "100")
+    private int spoolBatchSize = 100;
+    @UriParam(label = "producer", defaultValue = "1")
+    private int spoolDrainParallelism = 1;
+    @UriParam(label = "producer", defaultValue = "1000", javaType = "java.time.Duration")
+    private long spoolRetryBackoff = 1000;
+    @UriParam(label = "producer", defaultValue = "60000", javaType = "java.time.Duration")
+    private long spoolMaxRetryBackoff = 60000;
+    @UriParam(label = "producer", defaultValue = "10")
+    private int spoolMaxAttempts = 10;
+    @UriParam(label = "advanced", defaultValue = "8388608")
+    private long chunkSize = 8 * 1024 * 1024;
+    @UriParam(label = "advanced", defaultValue = "4")
+    private int chunkParallelism = 4;
+    @UriParam(label = "advanced", defaultValue = "3")
+    private int chunkRetries = 3;
 
     public PooledSftpConfiguration() {
     }
@@ -37,4 +131,566 @@ public class PooledSftpConfiguration extends SftpConfiguration {
     public void setPoolConfig(GenericObjectPoolConfig<SftpConnection> poolConfig) {
         this.poolConfig = poolConfig;
     }
+
+    public boolean isSharedPool() {
+        return sharedPool;
+    }
+
+    /**
+     * Whether endpoints with the same host, port, username and authentication/cipher settings share a single
+     * connection pool. The endpoints must also agree on the options applied to the pool as a whole, such as
+     * poolConfig, channelsPerSession, validation, the directory cache, the circuit breaker, host ejection and adaptive
+     * sizing, otherwise an endpoint joining the pool fails to start.
+     */
+    public void setSharedPool(boolean sharedPool) {
+        this.sharedPool = sharedPool;
+    }
+
+    public int getChannelsPerSession() {
+        return channelsPerSession;
+    }
+
+    /**
+     * The maximum number of SFTP channels multiplexed over a single SSH session. The default of 1 opens a dedicated
+     * SSH session for every pooled connection. Keep this at or below the server's MaxSessions setting.
+     */
+    public void setChannelsPerSession(int channelsPerSession) {
+        this.channelsPerSession = channelsPerSession;
+    }
+
+    public boolean isPollAffinity() {
+        return pollAffinity;
+    }
+
+    /**
+     * Whether the consumer borrows a single pooled connection at the start of each poll and uses it for the
+     * listing, retrieval and commit/rollback of every file in that poll, instead of borrowing one per operation.
+     * Exchanges completed asynchronously on another thread fall back to borrowing per operation. With
+     * walkParallelism or downloadParallelism the connection is returned to the pool before the walk or the
+     * retrieval is handed to other threads, which borrow their own, so the poll spans more than one connection.
+     */
+    public void setPollAffinity(boolean pollAffinity) {
+        this.pollAffinity = pollAffinity;
+    }
+
+    public long getChunkedDownloadThreshold() {
+        return chunkedDownloadThreshold;
+    }
+
+    /**
+     * Files of at least this size (in bytes) are downloaded as byte ranges fetched in parallel over several pooled
+     * connections and written into the local work file. Requires localWorkDirectory. 0 disables chunked downloads.
+     */
+    public void setChunkedDownloadThreshold(long chunkedDownloadThreshold) {
+        this.chunkedDownloadThreshold = chunkedDownloadThreshold;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * The size (in bytes) of each byte range of a chunked transfer.
+     */
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkParallelism() {
+        return chunkParallelism;
+    }
+
+    /**
+     * The maximum number of byte ranges of chunked transfers that are transferred concurrently by the endpoint.
+     */
+    public void setChunkParallelism(int chunkParallelism) {
+        this.chunkParallelism = chunkParallelism;
+    }
+
+    public long getChunkedUploadThreshold() {
+        return chunkedUploadThreshold;
+    }
+
+    /**
+     * Files of at least this size (in bytes) are uploaded as byte ranges written in parallel over several pooled
+     * connections into a temporary remote file, which is renamed to the target name once complete. Only applies to
+     * message bodies backed by a local file, and not when appending, converting the charset or keeping the last
+     * modified timestamp. 0 disables chunked uploads.
+     */
+    public void setChunkedUploadThreshold(long chunkedUploadThreshold) {
+        this.chunkedUploadThreshold = chunkedUploadThreshold;
+    }
+
+    public int getChunkRetries() {
+        return chunkRetries;
+    }
+
+    /**
+     * How many times a failed byte range of a chunked transfer is retried, over a fresh pooled connection, before the
+     * whole transfer fails.
+     */
+    public void setChunkRetries(int chunkRetries) {
+        this.chunkRetries = chunkRetries;
+    }
+
+    public int getWarmUpSize() {
+        return warmUpSize;
+    }
+
+    /**
+     * The number of connections opened when the endpoint starts, so the first requests do not pay for the handshake.
+     * Capped by maxTotal and maxIdle of the pool. Failing to open them is logged and does not prevent the endpoint
+     * from starting. 0 disables warm-up.
+     */
+    public void setWarmUpSize(int warmUpSize) {
+        this.warmUpSize = warmUpSize;
+    }
+
+    public int getWarmUpConcurrency() {
+        return warmUpConcurrency;
+    }
+
+    /**
+     * The maximum number of connections opened at the same time while warming up the pool, to keep servers that
+     * rate limit new connections from refusing them.
+     */
+    public void setWarmUpConcurrency(int warmUpConcurrency) {
+        this.warmUpConcurrency = warmUpConcurrency;
+    }
+
+    public SftpValidationStrategy getValidationStrategy() {
+        return validationStrategy;
+    }
+
+    /**
+     * How idle pooled connections are checked to be alive: CONNECTED only checks the local connection state,
+     * KEEPALIVE sends an SSH keepalive and PING makes an SFTP realpath round-trip. Other than CONNECTED, the checks
+     * are made by the pool's evictor on idle connections, which is enabled with testWhileIdle if the pool
+     * configuration does not already run it, so borrowing is not slowed down.
+     */
+    public void setValidationStrategy(SftpValidationStrategy validationStrategy) {
+        this.validationStrategy = validationStrategy;
+    }
+
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * Connections seen working within this time (in millis) are not checked again by the validation strategy. Also
+     * used as the evictor interval when the validation strategy enables the evictor.
+     */
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    public long getDirectoryCacheTtl() {
+        return directoryCacheTtl;
+    }
+
+    /**
+     * How long (in millis) a remote directory that was found or created is trusted to exist, so uploads into it skip
+     * checking and creating it again. The cache belongs to the connection pool, and a directory is forgotten when an
+     * upload into it fails because it does not exist. 0 disables the cache.
+     */
+    public void setDirectoryCacheTtl(long directoryCacheTtl) {
+        this.directoryCacheTtl = directoryCacheTtl;
+    }
+
+    public int getDirectoryCacheSize() {
+        return directoryCacheSize;
+    }
+
+    /**
+     * The maximum number of remote directories kept in the directory cache, evicting the least recently used.
+     */
+    public void setDirectoryCacheSize(int directoryCacheSize) {
+        this.directoryCacheSize = directoryCacheSize;
+    }
+
+    public int getListingPageSize() {
+        return listingPageSize;
+    }
+
+    /**
+     * Lists directories incrementally, filtering the entries in pages of this size while they are read from the
+     * server and no longer collecting them once maxMessagesPerPoll is reached, instead of reading the whole
+     * directory into memory first. Not used together with doneFileName or preSort, which need the complete listing. 0 disables
+     * incremental listing.
+     */
+    public void setListingPageSize(int listingPageSize) {
+        this.listingPageSize = listingPageSize;
+    }
+
+    public int getWalkParallelism() {
+        return walkParallelism;
+    }
+
+    /**
+     * The number of directories listed concurrently, each over its own pooled connection, when polling recursively.
+     * The walk still visits the files in the same order as listing one directory after the other, and is limited by
+     * minDepth and maxDepth as usual. Capped by the maximum size of the connection pool. Takes precedence over
+     * listingPageSize for recursive polls. 0 or 1 walks the directories one at a time.
+     */
+    public void setWalkParallelism(int walkParallelism) {
+        this.walkParallelism = walkParallelism;
+    }
+
+    public int getDownloadParallelism() {
+        return downloadParallelism;
+    }
+
+    /**
+     * The number of files of a poll retrieved concurrently, each over its own pooled connection. Every file is still
+     * begun, routed and committed or rolled back on its own. The poll completes once all its files are done. Capped by
+     * the maximum size of the connection pool. 0 or 1 retrieves the files one at a time.
+     */
+    public void setDownloadParallelism(int downloadParallelism) {
+        this.downloadParallelism = downloadParallelism;
+    }
+
+    public boolean isOrderedHandOff() {
+        return orderedHandOff;
+    }
+
+    /**
+     * With downloadParallelism, whether the files are handed to the route in the order of the poll. Otherwise each
+     * file is routed as soon as it has been retrieved.
+     */
+    public void setOrderedHandOff(boolean orderedHandOff) {
+        this.orderedHandOff = orderedHandOff;
+    }
+
+    public boolean isAsyncProducer() {
+        return asyncProducer;
+    }
+
+    /**
+     * Writes files on a dedicated executor instead of the routing thread, completing the exchange asynchronously once
+     * the file has been written. Uses virtual threads on Java 21 or later. Requires useConnectionPool.
+     */
+    public void setAsyncProducer(boolean asyncProducer) {
+        this.asyncProducer = asyncProducer;
+    }
+
+    public int getAsyncMaxInFlight() {
+        return asyncMaxInFlight;
+    }
+
+    /**
+     * The maximum number of exchanges the asynchronous producer has accepted and not yet written. Further exchanges
+     * fail right away with a RejectedExecutionException rather than waiting for a connection. 0 uses twice the maximum
+     * size of the connection pool.
+     */
+    public void setAsyncMaxInFlight(int asyncMaxInFlight) {
+        this.asyncMaxInFlight = asyncMaxInFlight;
+    }
+
+    public boolean isAdaptivePoolSizing() {
+        return adaptivePoolSizing;
+    }
+
+    /**
+     * Adapts maxTotal of the connection pool to the observed load, between adaptiveMinTotal and the maxTotal of the
+     * pool configuration. The size grows by one while borrowers wait longer than adaptiveTargetBorrowWait, is halved
+     * when the server refuses connections, and shrinks by one while connections are left unused.
+     */
+    public void setAdaptivePoolSizing(boolean adaptivePoolSizing) {
+        this.adaptivePoolSizing = adaptivePoolSizing;
+    }
+
+    public int getAdaptiveMinTotal() {
+        return adaptiveMinTotal;
+    }
+
+    /**
+     * The smallest maxTotal the adaptive pool sizing shrinks the pool to.
+     */
+    public void setAdaptiveMinTotal(int adaptiveMinTotal) {
+        this.adaptiveMinTotal = adaptiveMinTotal;
+    }
+
+    public long getAdaptiveInterval() {
+        return adaptiveInterval;
+    }
+
+    /**
+     * How often (in millis) the adaptive pool sizing makes a decision.
+     */
+    public void setAdaptiveInterval(long adaptiveInterval) {
+        this.adaptiveInterval = adaptiveInterval;
+    }
+
+    public long getAdaptiveTargetBorrowWait() {
+        return adaptiveTargetBorrowWait;
+    }
+
+    /**
+     * The mean time (in millis) borrowers may wait for a connection before the adaptive pool sizing grows the pool.
+     */
+    public void setAdaptiveTargetBorrowWait(long adaptiveTargetBorrowWait) {
+        this.adaptiveTargetBorrowWait = adaptiveTargetBorrowWait;
+    }
+
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    /**
+     * The number of consecutive failed connection attempts after which new connections fail right away with a
+     * SftpCircuitOpenException instead of each waiting for the connect timeout. After circuitBreakerBackoff a single
+     * trial connection is let through, which closes the circuit on success or opens it again for twice as long on
+     * failure. 0 disables the circuit breaker.
+     */
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    public long getCircuitBreakerBackoff() {
+        return circuitBreakerBackoff;
+    }
+
+    /**
+     * How long (in millis) the circuit stays open the first time, jittered between half and the full time.
+     */
+    public void setCircuitBreakerBackoff(long circuitBreakerBackoff) {
+        this.circuitBreakerBackoff = circuitBreakerBackoff;
+    }
+
+    public long getCircuitBreakerMaxBackoff() {
+        return circuitBreakerMaxBackoff;
+    }
+
+    /**
+     * The longest (in millis) the circuit stays open as failed trial connections double the backoff.
+     */
+    public void setCircuitBreakerMaxBackoff(long circuitBreakerMaxBackoff) {
+        this.circuitBreakerMaxBackoff = circuitBreakerMaxBackoff;
+    }
+
+    public int getMaxConcurrentConnects() {
+        return maxConcurrentConnects;
+    }
+
+    /**
+     * The maximum number of connection attempts in flight for the pool, so a burst of borrowers does not open a storm
+     * of connections. Further attempts wait for at most the connect timeout, or until a slot is free if the connect
+     * timeout is 0. 0 does not limit them.
+     */
+    public void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        this.maxConcurrentConnects = maxConcurrentConnects;
+    }
+
+    public String getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * The name of the partition (bulkhead) of the connection pool this endpoint borrows its connections from.
+     * Endpoints sharing a pool and a bulkhead share its connections, and the first endpoint using a bulkhead defines
+     * its reserved, max and priority.
+     */
+    public void setBulkhead(String bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    public int getBulkheadReserved() {
+        return bulkheadReserved;
+    }
+
+    /**
+     * The number of connections of the pool reserved for the bulkhead, which other bulkheads cannot use even while
+     * they are unused.
+     */
+    public void setBulkheadReserved(int bulkheadReserved) {
+        this.bulkheadReserved = bulkheadReserved;
+    }
+
+    public int getBulkheadMax() {
+        return bulkheadMax;
+    }
+
+    /**
+     * The maximum number of connections of the pool the bulkhead may use at once. 0 only limits it by the pool size.
+     */
+    public void setBulkheadMax(int bulkheadMax) {
+        this.bulkheadMax = bulkheadMax;
+    }
+
+    public int getBulkheadPriority() {
+        return bulkheadPriority;
+    }
+
+    /**
+     * Borrowers of bulkheads with a higher priority are given freed connections first.
+     */
+    public void setBulkheadPriority(int bulkheadPriority) {
+        this.bulkheadPriority = bulkheadPriority;
+    }
+
+    public boolean isMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Whether to record borrow waits and the latency and bytes of store, retrieve and list operations, exposed as a
+     * JMX MBean and a health check of the endpoint.
+     */
+    public void setMetrics(boolean metrics) {
+        this.metrics = metrics;
+    }
+
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Local directory of the write-behind spool. When set, the producer only writes the file to this directory and
+     * returns, and the file is uploaded in the background, surviving restarts. Each endpoint needs its own directory.
+     */
+    public void setSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public int getSpoolBatchSize() {
+        return spoolBatchSize;
+    }
+
+    /**
+     * Maximum number of spooled files of one directory uploaded over one connection before it goes back to the pool.
+     */
+    public void setSpoolBatchSize(int spoolBatchSize) {
+        this.spoolBatchSize = spoolBatchSize;
+    }
+
+    public int getSpoolDrainParallelism() {
+        return spoolDrainParallelism;
+    }
+
+    /**
+     * Number of target directories the spool uploads to concurrently. Files of one directory are always uploaded one
+     * at a time, in the order they were spooled.
+     */
+    public void setSpoolDrainParallelism(int spoolDrainParallelism) {
+        this.spoolDrainParallelism = spoolDrainParallelism;
+    }
+
+    public long getSpoolRetryBackoff() {
+        return spoolRetryBackoff;
+    }
+
+    /**
+     * Time in millis a directory waits after a failed upload of a spooled file, doubling on every further failure.
+     */
+    public void setSpoolRetryBackoff(long spoolRetryBackoff) {
+        this.spoolRetryBackoff = spoolRetryBackoff;
+    }
+
+    public long getSpoolMaxRetryBackoff() {
+        return spoolMaxRetryBackoff;
+    }
+
+    /**
+     * The longest time in millis a directory waits between two attempts to upload a spooled file.
+     */
+    public void setSpoolMaxRetryBackoff(long spoolMaxRetryBackoff) {
+        this.spoolMaxRetryBackoff = spoolMaxRetryBackoff;
+    }
+
+    public int getSpoolMaxAttempts() {
+        return spoolMaxAttempts;
+    }
+
+    /**
+     * Number of attempts to upload a spooled file before it is moved to the <tt>error</tt> subdirectory of the spool,
+     * so the later files of its directory are no longer held up. Use 0 to retry forever.
+     */
+    public void setSpoolMaxAttempts(int spoolMaxAttempts) {
+        this.spoolMaxAttempts = spoolMaxAttempts;
+    }
+
+    public String getHosts() {
+        return hosts;
+    }
+
+    /**
+     * Comma separated list of equivalent nodes, as <tt>host[:port][*weight]</tt>, the pooled connections are spread
+     * over instead of the host of the uri. Nodes without a port use the port of the uri, and nodes without a weight
+     * have weight 1. Each node must be accepted by the known hosts.
+     */
+    public void setHosts(String hosts) {
+        this.hosts = hosts;
+    }
+
+    public SftpHostSelection getHostSelection() {
+        return hostSelection;
+    }
+
+    /**
+     * How the node of a new connection is picked from the hosts: the node with the fewest open connections relative
+     * to its weight, or weighted round robin.
+     */
+    public void setHostSelection(SftpHostSelection hostSelection) {
+        this.hostSelection = hostSelection;
+    }
+
+    public int getHostEjectionThreshold() {
+        return hostEjectionThreshold;
+    }
+
+    /**
+     * The number of consecutive failed connection attempts to a node of the hosts after which no connections are
+     * opened to it for hostEjectionBackoff. 0 never ejects nodes.
+     */
+    public void setHostEjectionThreshold(int hostEjectionThreshold) {
+        this.hostEjectionThreshold = hostEjectionThreshold;
+    }
+
+    public long getHostEjectionBackoff() {
+        return hostEjectionBackoff;
+    }
+
+    /**
+     * How long (in millis) a node is ejected the first time, jittered between half and the full time. A re-admitted
+     * node that fails its first connection attempt is ejected for twice as long.
+     */
+    public void setHostEjectionBackoff(long hostEjectionBackoff) {
+        this.hostEjectionBackoff = hostEjectionBackoff;
+    }
+
+    public long getHostMaxEjectionBackoff() {
+        return hostMaxEjectionBackoff;
+    }
+
+    /**
+     * The longest (in millis) a node is ejected as failed re-admissions double the backoff.
+     */
+    public void setHostMaxEjectionBackoff(long hostMaxEjectionBackoff) {
+        this.hostMaxEjectionBackoff = hostMaxEjectionBackoff;
+    }
+
+    public long getHostSlowStart() {
+        return hostSlowStart;
+    }
+
+    /**
+     * The time (in millis) over which the share of new connections of a re-admitted node ramps up from a tenth of its
+     * weight to its full weight. 0 gives it its full share at once.
+     */
+    public void setHostSlowStart(long hostSlowStart) {
+        this.hostSlowStart = hostSlowStart;
+    }
+
+    public String getRemoteStateIndexFile() {
+        return remoteStateIndexFile;
+    }
+
+    /**
+     * Local file persisting the size and last modification time of every file the consumer has processed. Listed
+     * files that are unchanged since are skipped before the filters and idempotent repository, so a poll only
+     * considers new and changed files. Each endpoint needs its own file.
+     */
+    public void setRemoteStateIndexFile(String remoteStateIndexFile) {
+        this.remoteStateIndexFile = remoteStateIndexFile;
+    }
 }
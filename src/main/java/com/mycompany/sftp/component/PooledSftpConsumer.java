@@ -0,0 +1,477 @@
+package com.mycompany.sftp.component;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePropertyKey;
+import org.apache.camel.Processor;
+import org.apache.camel.component.file.GenericFile;
+import org.apache.camel.component.file.GenericFileOperationFailedException;
+import org.apache.camel.component.file.GenericFileProcessStrategy;
+import org.apache.camel.component.file.remote.RemoteFile;
+import org.apache.camel.component.file.remote.SftpConsumer;
+import org.apache.camel.component.file.remote.SftpRemoteFile;
+import org.apache.camel.support.AsyncProcessorSupport;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.apache.camel.util.FileUtil;
+import org.apache.camel.util.ObjectHelper;
+import org.apache.camel.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SFTP consumer that polls using {@link PooledSftpOperations}.
+ */
+public class PooledSftpConsumer extends SftpConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PooledSftpConsumer.class);
+    private static final SftpRemoteFile[] NO_FILES = new SftpRemoteFile[0];
+
+    private final PooledSftpConfiguration configuration;
+    private final PooledSftpOperations pooledOperations;
+    private final String endpointPath;
+    private volatile HandOff handOff;
+    // the tasks of the batch being processed in parallel, only used by the polling thread
+    private List<Future<Boolean>> submitted;
+    private volatile RemoteStateIndex stateIndex;
+    private volatile boolean listingFailed;
+
+    public PooledSftpConsumer(PooledSftpEndpoint endpoint, Processor processor, PooledSftpOperations operations,
+                              GenericFileProcessStrategy<SftpRemoteFile> processStrategy) {
+        super(endpoint, processor, operations, processStrategy);
+        this.configuration = (PooledSftpConfiguration) endpoint.getConfiguration();
+        this.pooledOperations = operations;
+        this.endpointPath = configuration.getDirectory();
+    }
+
+    @Override
+    public PooledSftpEndpoint getEndpoint() {
+        return (PooledSftpEndpoint) super.getEndpoint();
+    }
+
+    /**
+     * The index of the files already processed, or <tt>null</tt> if every poll considers every listed file.
+     */
+    public RemoteStateIndex getRemoteStateIndex() {
+        return stateIndex;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (ObjectHelper.isNotEmpty(configuration.getRemoteStateIndexFile())) {
+            stateIndex = RemoteStateIndex.open(Paths.get(configuration.getRemoteStateIndexFile()));
+            LOG.debug("Skipping files unchanged since they were processed, as recorded by {}", stateIndex);
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        RemoteStateIndex index = stateIndex;
+        stateIndex = null;
+        if (index != null) {
+            index.close();
+        }
+    }
+
+    @Override
+    public int poll() throws Exception {
+        try {
+            if (!configuration.isPollAffinity()) {
+                return super.poll();
+            }
+
+            // list, retrieve and commit every file of this poll over a single borrowed connection
+            pooledOperations.pinConnection();
+            try {
+                return super.poll();
+            } finally {
+                pooledOperations.unpinConnection();
+            }
+        } finally {
+            flushStateIndex();
+        }
+    }
+
+    private void flushStateIndex() {
+        RemoteStateIndex index = stateIndex;
+        if (index != null) {
+            try {
+                index.flush();
+            } catch (IOException e) {
+                LOG.warn("Cannot flush remote state index {} due {}", index.getFile(), e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    protected Exchange createExchange(GenericFile<SftpRemoteFile> file) {
+        Exchange answer = super.createExchange(file);
+        RemoteStateIndex index = stateIndex;
+        if (index != null) {
+            // the state as listed, so a file changed while it was processed is picked up again
+            String path = file.getAbsoluteFilePath();
+            long length = file.getFileLength();
+            long lastModified = file.getLastModified();
+            answer.getExchangeExtension().addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                public void onComplete(Exchange exchange) {
+                    index.record(path, length, lastModified);
+                }
+            });
+        }
+        return answer;
+    }
+
+    @Override
+    protected boolean isMatched(GenericFile<SftpRemoteFile> file, boolean isDirectory, SftpRemoteFile[] files) {
+        RemoteStateIndex index = stateIndex;
+        if (index != null && !isDirectory
+                && index.isUnchanged(file.getAbsoluteFilePath(), file.getFileLength(), file.getLastModified())) {
+            // skips the filters, in progress and idempotent checks as well
+            LOG.trace("Skipping file unchanged since it was processed: {}", file);
+            return false;
+        }
+        return super.isMatched(file, isDirectory, files);
+    }
+
+    @Override
+    public int processBatch(Queue<Object> exchanges) {
+        if (configuration.getDownloadParallelism() <= 1) {
+            return super.processBatch(exchanges);
+        }
+
+        // the batch hands each exchange to processExchange, which submits it rather than processing it in turn
+        // the files are retrieved over connections borrowed by the download threads
+        pooledOperations.releasePinnedConnection();
+        List<Future<Boolean>> tasks = new ArrayList<>();
+        handOff = configuration.isOrderedHandOff() ? new HandOff() : null;
+        submitted = tasks;
+        try {
+            int answer = super.processBatch(exchanges);
+            submitted = null;
+            for (Future<Boolean> task : tasks) {
+                if (!awaitExchange(task)) {
+                    answer--;
+                }
+            }
+            return answer;
+        } finally {
+            submitted = null;
+            handOff = null;
+        }
+    }
+
+    @Override
+    protected boolean processExchange(Exchange exchange) {
+        List<Future<Boolean>> tasks = submitted;
+        if (tasks == null) {
+            return super.processExchange(exchange);
+        }
+        tasks.add(submit(exchange, () -> super.processExchange(exchange)));
+        // counted once the task is done
+        return true;
+    }
+
+    @Override
+    protected boolean customProcessExchange(Exchange exchange, Processor processor) {
+        List<Future<Boolean>> tasks = submitted;
+        if (tasks == null) {
+            return super.customProcessExchange(exchange, processor);
+        }
+        tasks.add(submit(exchange, () -> super.customProcessExchange(exchange, processor)));
+        return true;
+    }
+
+    /**
+     * Begins, retrieves, routes and commits or rolls back the file of the exchange over its own connection, on the
+     * download executor.
+     */
+    private Future<Boolean> submit(Exchange exchange, Callable<Boolean> task) {
+        int turn = exchange.getProperty(ExchangePropertyKey.BATCH_INDEX, 0, Integer.class);
+        HandOff batchHandOff = handOff;
+        return getEndpoint().getDownloadExecutorService().submit(() -> {
+            try {
+                return task.call();
+            } finally {
+                if (batchHandOff != null) {
+                    // also when the file was not routed, so the next files are not held back
+                    batchHandOff.done(turn);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Processor getProcessor() {
+        Processor processor = super.getProcessor();
+        HandOff current = handOff;
+        if (current == null) {
+            return processor;
+        }
+        return exchange -> {
+            int turn = current.awaitTurn(exchange);
+            try {
+                processor.process(exchange);
+            } finally {
+                current.done(turn);
+            }
+        };
+    }
+
+    @Override
+    public AsyncProcessor getAsyncProcessor() {
+        AsyncProcessor processor = super.getAsyncProcessor();
+        HandOff current = handOff;
+        if (current == null) {
+            return processor;
+        }
+        return new AsyncProcessorSupport() {
+            @Override
+            public boolean process(Exchange exchange, AsyncCallback callback) {
+                int turn;
+                try {
+                    turn = current.awaitTurn(exchange);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    exchange.setException(e);
+                    callback.done(true);
+                    return true;
+                }
+                try {
+                    return processor.process(exchange, callback);
+                } finally {
+                    // handed off, the route may continue asynchronously
+                    current.done(turn);
+                }
+            }
+        };
+    }
+
+    private boolean awaitExchange(Future<Boolean> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            LOG.warn("Error processing file: {}. This exception is ignored.", e.getCause().getMessage(), e.getCause());
+            return false;
+        }
+    }
+
+    @Override
+    protected boolean pollDirectory(String fileName, List<GenericFile<SftpRemoteFile>> fileList, int depth) {
+        RemoteStateIndex index = stateIndex;
+        if (index == null) {
+            return walkDirectory(fileName, fileList, depth);
+        }
+
+        index.beginScan();
+        listingFailed = false;
+        boolean complete = walkDirectory(fileName, fileList, depth);
+        if (complete && listingFailed) {
+            LOG.debug("Keeping entries of remote state index {} as a directory could not be listed", index.getFile());
+        } else if (complete) {
+            // every file still on the server has been seen
+            int removed = index.removeUnseen();
+            if (removed > 0) {
+                LOG.debug("Removed {} files no longer listed from remote state index {}", removed, index.getFile());
+            }
+        }
+        return complete;
+    }
+
+    @Override
+    protected boolean ignoreCannotRetrieveFile(String name, Exchange exchange, Exception cause) {
+        boolean answer = super.ignoreCannotRetrieveFile(name, exchange, cause);
+        if (answer && exchange == null) {
+            // a directory that could not be listed, so its files were not seen by this scan
+            listingFailed = true;
+        }
+        return answer;
+    }
+
+    private boolean walkDirectory(String fileName, List<GenericFile<SftpRemoteFile>> fileList, int depth) {
+        if (!isParallelWalk()) {
+            return super.pollDirectory(fileName, fileList, depth);
+        }
+
+        // the directories are listed over connections borrowed by the walker threads
+        pooledOperations.releasePinnedConnection();
+        final String charset = getEndpoint().getCharset();
+        ParallelDirectoryWalker walker = new ParallelDirectoryWalker(pooledOperations,
+                getEndpoint().getDirectoryWalkerExecutorService(), configuration.getWalkParallelism(),
+                getEndpoint().isPreSort());
+        return walker.walk(fileName, depth, new ParallelDirectoryWalker.Visitor() {
+            @Override
+            public boolean acceptDirectory(String parentPath, SftpRemoteFile directory, int depth, SftpRemoteFile[] siblings) {
+                return depth < endpoint.getMaxDepth()
+                        && isValidFile(asRemoteFile(parentPath, directory, charset), true, siblings);
+            }
+
+            @Override
+            public void visitFile(String parentPath, SftpRemoteFile file, int depth, SftpRemoteFile[] siblings) {
+                RemoteFile<SftpRemoteFile> remote = asRemoteFile(parentPath, file, charset);
+                if (depth >= endpoint.getMinDepth() && isValidFile(remote, false, siblings)) {
+                    fileList.add(remote);
+                }
+            }
+
+            @Override
+            public boolean canContinue() {
+                return canPollMoreFiles(fileList);
+            }
+
+            @Override
+            public boolean ignoreListingFailure(String path, GenericFileOperationFailedException cause) {
+                return ignoreCannotRetrieveFile(path, null, cause);
+            }
+        });
+    }
+
+    @Override
+    protected boolean doPollDirectory(String absolutePath, String dirName, List<GenericFile<SftpRemoteFile>> fileList,
+                                      int depth) {
+        if (!isIncrementalListing()) {
+            return super.doPollDirectory(absolutePath, dirName, fileList, depth);
+        }
+        LOG.trace("doPollDirectory incrementally from absolutePath: {}, dirName: {}", absolutePath, dirName);
+
+        final int currentDepth = depth + 1;
+        final String charset = getEndpoint().getCharset();
+        final List<String> subDirectories = new ArrayList<>();
+        final boolean[] canPollMore = { true };
+        try {
+            pooledOperations.listFiles(absolutePath, configuration.getListingPageSize(), page -> {
+                for (SftpRemoteFile file : page) {
+                    if (!canPollMoreFiles(fileList)) {
+                        canPollMore[0] = false;
+                        return false;
+                    }
+                    RemoteFile<SftpRemoteFile> remote = asRemoteFile(absolutePath, file, charset);
+                    if (file.isDirectory()) {
+                        // sub directories are walked after this listing has completed, as it holds the connection
+                        if (endpoint.isRecursive() && currentDepth < endpoint.getMaxDepth()
+                                && isValidFile(remote, true, NO_FILES)) {
+                            subDirectories.add(file.getFilename());
+                        }
+                    } else if (currentDepth >= endpoint.getMinDepth() && isValidFile(remote, false, NO_FILES)) {
+                        fileList.add(remote);
+                    }
+                }
+                return true;
+            });
+        } catch (GenericFileOperationFailedException e) {
+            if (ignoreCannotRetrieveFile(absolutePath, null, e)) {
+                LOG.debug("Cannot list files in directory {} due directory does not exist or file permission error.",
+                        absolutePath);
+                return true;
+            }
+            throw e;
+        }
+        if (!canPollMore[0]) {
+            return false;
+        }
+
+        for (String subDirectory : subDirectories) {
+            if (!canPollMoreFiles(fileList)) {
+                return false;
+            }
+            String path = ObjectHelper.isNotEmpty(absolutePath) ? absolutePath + "/" + subDirectory : subDirectory;
+            if (!pollSubDirectory(path, subDirectory, fileList, currentDepth)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isParallelWalk() {
+        return configuration.getWalkParallelism() > 1 && endpoint.isRecursive() && configuration.isUseList();
+    }
+
+    private boolean isIncrementalListing() {
+        // the done file check and pre-sorting need the complete listing
+        return configuration.getListingPageSize() > 0 && configuration.isUseList()
+                && ObjectHelper.isEmpty(endpoint.getDoneFileName()) && !getEndpoint().isPreSort();
+    }
+
+    /**
+     * Copied from the private <tt>SftpConsumer.asRemoteFile</tt> of Apache Camel 4.8.0 (camel-ftp), which the
+     * incremental listing and the parallel walk cannot call. Keep it in line with that method when upgrading Camel.
+     */
+    private RemoteFile<SftpRemoteFile> asRemoteFile(String absolutePath, SftpRemoteFile file, String charset) {
+        RemoteFile<SftpRemoteFile> answer = new RemoteFile<>();
+
+        answer.setCharset(charset);
+        answer.setEndpointPath(endpointPath);
+        answer.setFile(file);
+        answer.setFileNameOnly(file.getFilename());
+        answer.setFileLength(file.getFileLength());
+        answer.setLastModified(file.getLastModified());
+        answer.setHostname(configuration.getHost());
+        answer.setDirectory(file.isDirectory());
+
+        // absolute or relative path
+        boolean absolute = FileUtil.hasLeadingSeparator(absolutePath);
+        answer.setAbsolute(absolute);
+
+        // create a pseudo absolute name
+        String dir = FileUtil.stripTrailingSeparator(absolutePath);
+        String absoluteFileName = FileUtil.stripLeadingSeparator(dir + "/" + file.getFilename());
+        // if absolute start with a leading separator otherwise let it be relative
+        if (absolute) {
+            absoluteFileName = "/" + absoluteFileName;
+        }
+        answer.setAbsoluteFilePath(absoluteFileName);
+
+        // the relative filename, skip the leading endpoint configured path
+        String relativePath = StringHelper.after(absoluteFileName, endpointPath);
+        // skip leading /
+        relativePath = FileUtil.stripLeadingSeparator(relativePath);
+        answer.setRelativeFilePath(relativePath);
+
+        // the file name should be the relative path
+        answer.setFileName(answer.getRelativeFilePath());
+
+        return answer;
+    }
+
+    /**
+     * Lets the files of a batch retrieved in parallel enter the route in the order of the batch.
+     */
+    private static final class HandOff {
+
+        private final BitSet done = new BitSet();
+        private int next;
+
+        int awaitTurn(Exchange exchange) throws InterruptedException {
+            int turn = exchange.getProperty(ExchangePropertyKey.BATCH_INDEX, 0, Integer.class);
+            synchronized (this) {
+                while (next < turn) {
+                    wait();
+                }
+            }
+            return turn;
+        }
+
+        synchronized void done(int turn) {
+            done.set(turn);
+            while (done.get(next)) {
+                next++;
+            }
+            notifyAll();
+        }
+    }
+}
@@ -1,19 +1,61 @@
 package com.mycompany.sftp.component;
 
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.camel.Processor;
+import org.apache.camel.component.file.GenericFileProducer;
+import org.apache.camel.component.file.remote.RemoteFileConsumer;
 import org.apache.camel.component.file.remote.RemoteFileOperations;
 import org.apache.camel.component.file.remote.SftpComponent;
 import org.apache.camel.component.file.remote.SftpConfiguration;
+import org.apache.camel.component.file.remote.SftpDefaultMoveExistingFileStrategy;
 import org.apache.camel.component.file.remote.SftpEndpoint;
 import org.apache.camel.component.file.remote.SftpRemoteFile;
+import org.apache.camel.health.HealthCheckRegistry;
+import org.apache.camel.util.ObjectHelper;
+import org.apache.camel.util.URISupport;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.mycompany.sftp.metrics.SftpEndpointMetrics;
+import com.mycompany.sftp.metrics.SftpPoolHealthCheck;
+import com.mycompany.sftp.pool.AdaptivePoolController;
+import com.mycompany.sftp.pool.RemoteDirectoryCache;
+import com.mycompany.sftp.pool.SftpBulkheads;
+import com.mycompany.sftp.pool.SftpCircuitBreaker;
 import com.mycompany.sftp.pool.SftpConnection;
 import com.mycompany.sftp.pool.SftpConnectionFactory;
+import com.mycompany.sftp.pool.SftpConnectionKey;
 import com.mycompany.sftp.pool.SftpConnectionPool;
+import com.mycompany.sftp.pool.SftpConnectionPoolRegistry;
+import com.mycompany.sftp.pool.SftpHostSelector;
+import com.mycompany.sftp.pool.SftpValidationStrategy;
 
 public class PooledSftpEndpoint extends SftpEndpoint {
 
+    private static final Logger LOG = LoggerFactory.getLogger(PooledSftpEndpoint.class);
+
     private final PooledSftpConfiguration configuration;
+    private volatile SftpConnectionPool connectionPool;
+    private SftpConnectionKey poolKey;
+    private ExecutorService chunkedTransferExecutorService;
+    private ExecutorService directoryWalkerExecutorService;
+    private ExecutorService downloadExecutorService;
+    private ExecutorService producerExecutorService;
+    private Semaphore asyncProducerPermits;
+    private volatile SftpBulkheads.Partition bulkhead;
+    private volatile long warmUpDuration = -1;
+    private volatile SftpEndpointMetrics metrics;
+    private SftpPoolHealthCheck healthCheck;
+    private volatile WriteBehindSpool spool;
 
     public PooledSftpEndpoint(String uri, SftpComponent component, SftpConfiguration configuration) {
         super(uri, component, configuration);
@@ -23,15 +65,463 @@ public class PooledSftpEndpoint extends SftpEndpoint {
     @Override
     public RemoteFileOperations<SftpRemoteFile> createRemoteFileOperations() {
         if (configuration.isUseConnectionPool()) {
-            SftpConnectionFactory factory = new SftpConnectionFactory(this);
-            GenericObjectPoolConfig<SftpConnection> config = configuration.getPoolConfig();
-            if (config == null) {
-                config = new GenericObjectPoolConfig<>();
-                // Set default pool settings if needed
-            }
-            SftpConnectionPool pool = new SftpConnectionPool(factory, config);
-            return new PooledSftpOperations(pool, this);
+            return new PooledSftpOperations(this);
         }
         return super.createRemoteFileOperations();
     }
+
+    @Override
+    protected RemoteFileConsumer<SftpRemoteFile> buildConsumer(Processor processor) {
+        if (!configuration.isUseConnectionPool()) {
+            return super.buildConsumer(processor);
+        }
+        if (configuration.isStepwise()) {
+            // stepwise changes the working directory of the channel, which is not kept between pooled borrows
+            LOG.debug("Disabling stepwise on pooled consumer endpoint: {}", this);
+            configuration.setStepwise(false);
+        }
+        return new PooledSftpConsumer(
+                this, processor, (PooledSftpOperations) createRemoteFileOperations(),
+                processStrategy != null ? processStrategy : createGenericFileStrategy());
+    }
+
+    @Override
+    protected GenericFileProducer<SftpRemoteFile> buildProducer() {
+        if (!configuration.isUseConnectionPool()) {
+            return super.buildProducer();
+        }
+        // as in super.buildProducer, which the spooling and asynchronous producers do not go through
+        if (getMoveExistingFileStrategy() == null) {
+            setMoveExistingFileStrategy(new SftpDefaultMoveExistingFileStrategy());
+        }
+        if (ObjectHelper.isNotEmpty(configuration.getSpoolDirectory())) {
+            return new SpoolingSftpProducer(this, (PooledSftpOperations) createRemoteFileOperations());
+        }
+        if (!configuration.isAsyncProducer()) {
+            return super.buildProducer();
+        }
+        return new PooledSftpProducer(this, (PooledSftpOperations) createRemoteFileOperations());
+    }
+
+    /**
+     * The connection pool used by this endpoint, acquired from the component's pool registry on first use.
+     */
+    public SftpConnectionPool getConnectionPool() {
+        SftpConnectionPool pool = connectionPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = connectionPool;
+                if (pool == null) {
+                    pool = acquireConnectionPool();
+                    connectionPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * The bulkhead partition of the connection pool the connections of this endpoint are borrowed for, the default
+     * partition if no bulkhead is configured.
+     */
+    public SftpBulkheads.Partition getBulkhead() {
+        SftpBulkheads.Partition answer = bulkhead;
+        if (answer == null) {
+            SftpBulkheads bulkheads = getConnectionPool().getBulkheads();
+            if (ObjectHelper.isEmpty(configuration.getBulkhead())) {
+                answer = bulkheads.getDefaultPartition();
+            } else {
+                answer = bulkheads.partition(configuration.getBulkhead(), configuration.getBulkheadReserved(),
+                        configuration.getBulkheadMax(), configuration.getBulkheadPriority());
+            }
+            bulkhead = answer;
+        }
+        return answer;
+    }
+
+    /**
+     * Borrows a connection for the bulkhead of this endpoint, recording the wait when metrics are enabled.
+     */
+    public SftpConnection borrowConnection() throws Exception {
+        SftpConnectionPool pool = getConnectionPool();
+        SftpEndpointMetrics m = metrics;
+        if (m == null) {
+            return pool.borrowObject(getBulkhead());
+        }
+        long start = System.nanoTime();
+        SftpConnection connection = pool.borrowObject(getBulkhead());
+        m.recordBorrow(System.nanoTime() - start);
+        return connection;
+    }
+
+    /**
+     * The write-behind spool of this endpoint, or <tt>null</tt> if no spool directory is configured or the endpoint is
+     * not started.
+     */
+    public WriteBehindSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * The metrics of this endpoint, or <tt>null</tt> if they are not enabled.
+     */
+    public SftpEndpointMetrics getMetrics() {
+        return metrics;
+    }
+
+    private SftpConnectionPool acquireConnectionPool() {
+        SftpConnectionPoolRegistry registry = getPoolRegistry();
+        if (configuration.isSharedPool() && registry != null) {
+            SftpConnectionKey key = SftpConnectionKey.of(configuration, getProxy(), configuration.getHosts());
+            SftpConnectionPool pool = registry.acquire(key, getPoolSettings(), this::createConnectionPool);
+            // only released once acquired
+            poolKey = key;
+            return pool;
+        }
+        return createConnectionPool();
+    }
+
+    /**
+     * The options applied to the pool as a whole by {@link #createConnectionPool()}, which endpoints sharing a pool
+     * must agree on.
+     */
+    private List<Object> getPoolSettings() {
+        GenericObjectPoolConfig<SftpConnection> config = configuration.getPoolConfig();
+        return Arrays.asList(
+                config != null ? config.toString() : null,
+                configuration.getChannelsPerSession(),
+                configuration.getValidationStrategy(),
+                configuration.getValidationInterval(),
+                configuration.getDirectoryCacheTtl(),
+                configuration.getDirectoryCacheSize(),
+                configuration.getCircuitBreakerThreshold(),
+                configuration.getCircuitBreakerBackoff(),
+                configuration.getCircuitBreakerMaxBackoff(),
+                configuration.getMaxConcurrentConnects(),
+                configuration.getHostSelection(),
+                configuration.getHostEjectionThreshold(),
+                configuration.getHostEjectionBackoff(),
+                configuration.getHostMaxEjectionBackoff(),
+                configuration.getHostSlowStart(),
+                configuration.isAdaptivePoolSizing(),
+                configuration.getAdaptiveMinTotal(),
+                configuration.getAdaptiveInterval(),
+                configuration.getAdaptiveTargetBorrowWait());
+    }
+
+    protected SftpConnectionPool createConnectionPool() {
+        SftpConnectionFactory factory = new SftpConnectionFactory(this);
+        factory.setChannelsPerSession(configuration.getChannelsPerSession());
+        factory.setValidationStrategy(configuration.getValidationStrategy());
+        factory.setValidationInterval(configuration.getValidationInterval());
+        if (ObjectHelper.isNotEmpty(configuration.getHosts())) {
+            factory.setHostSelector(new SftpHostSelector(
+                    configuration.getHosts(), configuration.getPort(), configuration.getHostSelection(),
+                    configuration.getHostEjectionThreshold(), configuration.getHostEjectionBackoff(),
+                    configuration.getHostMaxEjectionBackoff(), configuration.getHostSlowStart()));
+        }
+        if (configuration.getCircuitBreakerThreshold() > 0 || configuration.getMaxConcurrentConnects() > 0) {
+            factory.setCircuitBreaker(new SftpCircuitBreaker(
+                    SftpConnectionKey.of(configuration, getProxy(), configuration.getHosts()).toString(),
+                    configuration.getCircuitBreakerThreshold(), configuration.getCircuitBreakerBackoff(),
+                    configuration.getCircuitBreakerMaxBackoff(), configuration.getMaxConcurrentConnects(),
+                    configuration.getConnectTimeout()));
+        }
+        GenericObjectPoolConfig<SftpConnection> config = configuration.getPoolConfig();
+        if (config == null) {
+            config = new GenericObjectPoolConfig<>();
+            // Set default pool settings if needed
+        } else {
+            // the configuration may be a bean shared with other endpoints
+            config = config.clone();
+        }
+        if (configuration.getValidationStrategy() != SftpValidationStrategy.CONNECTED) {
+            enableIdleValidation(config);
+        }
+        SftpConnectionPool pool = new SftpConnectionPool(factory, config);
+        if (configuration.getDirectoryCacheTtl() > 0) {
+            pool.setDirectoryCache(new RemoteDirectoryCache(
+                    configuration.getDirectoryCacheTtl(), Math.max(1, configuration.getDirectoryCacheSize())));
+        }
+        if (configuration.isAdaptivePoolSizing()) {
+            startAdaptiveController(pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Adapts maxTotal of the pool between adaptiveMinTotal and the configured maxTotal, stopped when the pool is
+     * closed.
+     */
+    private void startAdaptiveController(SftpConnectionPool pool) {
+        if (pool.getMaxTotal() < 1) {
+            LOG.warn("Cannot adapt size of connection pool of {} as its maxTotal is not bounded", this);
+            return;
+        }
+        int minTotal = Math.max(1, Math.min(configuration.getAdaptiveMinTotal(), pool.getMaxTotal()));
+        AdaptivePoolController controller = new AdaptivePoolController(
+                pool, minTotal, pool.getMaxTotal(), configuration.getAdaptiveTargetBorrowWait());
+        pool.setAdaptiveController(controller);
+        controller.start(getCamelContext().getExecutorServiceManager(), this,
+                Math.max(100, configuration.getAdaptiveInterval()));
+        LOG.debug("Adapting size of connection pool of {} between {} and {}", this, minTotal, pool.getMaxTotal());
+    }
+
+    /**
+     * Validates idle connections in the evictor rather than when they are borrowed, running the evictor over all
+     * idle connections every validationInterval unless the pool configuration already runs it.
+     */
+    private void enableIdleValidation(GenericObjectPoolConfig<SftpConnection> config) {
+        config.setTestWhileIdle(true);
+        if (config.getDurationBetweenEvictionRuns().isNegative() || config.getDurationBetweenEvictionRuns().isZero()) {
+            LOG.debug("Validating idle connections of {} every {} ms", this, configuration.getValidationInterval());
+            config.setTimeBetweenEvictionRuns(Duration.ofMillis(Math.max(1000, configuration.getValidationInterval())));
+            config.setNumTestsPerEvictionRun(-1);
+        }
+    }
+
+    private SftpConnectionPoolRegistry getPoolRegistry() {
+        if (getComponent() instanceof PooledSftpComponent) {
+            return ((PooledSftpComponent) getComponent()).getPoolRegistry();
+        }
+        return null;
+    }
+
+    /**
+     * The executor transferring the byte ranges of chunked transfers, created on first use.
+     */
+    public synchronized ExecutorService getChunkedTransferExecutorService() {
+        if (chunkedTransferExecutorService == null) {
+            chunkedTransferExecutorService = getCamelContext().getExecutorServiceManager()
+                    .newFixedThreadPool(this, "PooledSftpChunkedTransfer", Math.max(1, configuration.getChunkParallelism()));
+        }
+        return chunkedTransferExecutorService;
+    }
+
+    /**
+     * The executor listing the directories of a parallel recursive walk, created on first use. Its size is capped by
+     * the maximum size of the connection pool.
+     */
+    public synchronized ExecutorService getDirectoryWalkerExecutorService() {
+        if (directoryWalkerExecutorService == null) {
+            int threads = configuration.getWalkParallelism();
+            int maxTotal = getConnectionPool().getMaxTotal();
+            if (maxTotal > 0) {
+                threads = Math.min(threads, maxTotal);
+            }
+            directoryWalkerExecutorService = getCamelContext().getExecutorServiceManager()
+                    .newFixedThreadPool(this, "PooledSftpDirectoryWalker", Math.max(1, threads));
+        }
+        return directoryWalkerExecutorService;
+    }
+
+    /**
+     * The executor retrieving and routing the files of a batch in parallel, created on first use. Its size is capped
+     * by the maximum size of the connection pool.
+     */
+    public synchronized ExecutorService getDownloadExecutorService() {
+        if (downloadExecutorService == null) {
+            int threads = configuration.getDownloadParallelism();
+            int maxTotal = getConnectionPool().getMaxTotal();
+            if (maxTotal > 0) {
+                threads = Math.min(threads, maxTotal);
+            }
+            downloadExecutorService = getCamelContext().getExecutorServiceManager()
+                    .newFixedThreadPool(this, "PooledSftpDownload", Math.max(1, threads));
+        }
+        return downloadExecutorService;
+    }
+
+    /**
+     * The maximum number of exchanges an asynchronous producer accepts before rejecting them, by default twice the
+     * maximum size of the connection pool.
+     */
+    public int getAsyncMaxInFlight() {
+        if (configuration.getAsyncMaxInFlight() > 0) {
+            return configuration.getAsyncMaxInFlight();
+        }
+        int maxTotal = getConnectionPool().getMaxTotal();
+        return maxTotal > 0 ? maxTotal * 2 : 100;
+    }
+
+    /**
+     * The permits bounding the exchanges in flight over all asynchronous producers of this endpoint.
+     */
+    public synchronized Semaphore getAsyncProducerPermits() {
+        if (asyncProducerPermits == null) {
+            int permits = getAsyncMaxInFlight();
+            LOG.debug("Writing files of {} asynchronously with at most {} exchanges in flight", this, permits);
+            asyncProducerPermits = new Semaphore(permits);
+        }
+        return asyncProducerPermits;
+    }
+
+    /**
+     * The number of exchanges accepted by the asynchronous producers of this endpoint and not yet written.
+     */
+    public synchronized int getAsyncInFlight() {
+        return asyncProducerPermits != null ? getAsyncMaxInFlight() - asyncProducerPermits.availablePermits() : 0;
+    }
+
+    /**
+     * The executor writing the files of an asynchronous producer, created on first use. Uses a virtual thread per
+     * file when running on Java 21 or later, as they only wait for connections and the server. Otherwise a fixed
+     * pool sized as the connection pool, as more threads would only wait for a connection.
+     */
+    public synchronized ExecutorService getProducerExecutorService() {
+        if (producerExecutorService == null) {
+            producerExecutorService = newVirtualThreadExecutor("PooledSftpProducer");
+            if (producerExecutorService == null) {
+                int maxTotal = getConnectionPool().getMaxTotal();
+                int threads = maxTotal > 0 ? Math.min(maxTotal, getAsyncMaxInFlight()) : getAsyncMaxInFlight();
+                producerExecutorService = getCamelContext().getExecutorServiceManager()
+                        .newFixedThreadPool(this, "PooledSftpProducer", Math.max(1, threads));
+            }
+        }
+        return producerExecutorService;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            // Thread.ofVirtual().name(name + "-", 0).factory(), looked up as the component is built for Java 17
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            // before Java 21
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Cannot create virtual thread executor, using platform threads", e);
+            return null;
+        }
+    }
+
+    /**
+     * How long the warm-up of the connection pool took in millis when the endpoint was started, or -1 if it was not
+     * warmed up.
+     */
+    public long getWarmUpDuration() {
+        return warmUpDuration;
+    }
+
+    private void warmUpConnectionPool() {
+        int concurrency = Math.max(1, configuration.getWarmUpConcurrency());
+        ExecutorService executor = getCamelContext().getExecutorServiceManager()
+                .newFixedThreadPool(this, "PooledSftpWarmUp", concurrency);
+        long start = System.nanoTime();
+        try {
+            int added = getConnectionPool().warmUp(configuration.getWarmUpSize(), executor);
+            warmUpDuration = (System.nanoTime() - start) / 1_000_000;
+            LOG.info("Warmed up connection pool of {} with {} connection(s) in {} ms", this, added, warmUpDuration);
+        } catch (Exception e) {
+            warmUpDuration = (System.nanoTime() - start) / 1_000_000;
+            LOG.warn("Cannot warm up connection pool of {} due {}. Connections will be opened on demand.", this,
+                    e.getMessage(), e);
+        } finally {
+            getCamelContext().getExecutorServiceManager().shutdownNow(executor);
+        }
+    }
+
+    private synchronized void releaseConnectionPool() {
+        SftpConnectionPool pool = connectionPool;
+        connectionPool = null;
+        bulkhead = null;
+        if (pool == null) {
+            return;
+        }
+        if (poolKey != null) {
+            getPoolRegistry().release(poolKey);
+            poolKey = null;
+        } else {
+            pool.close();
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        if (configuration.isUseConnectionPool() && ObjectHelper.isNotEmpty(configuration.getBulkhead())) {
+            // registered before any traffic, so the partition is accounted from the start
+            getBulkhead();
+        }
+        if (configuration.isUseConnectionPool() && configuration.isMetrics()) {
+            startMetrics();
+        }
+        if (configuration.isUseConnectionPool() && configuration.getWarmUpSize() > 0) {
+            warmUpConnectionPool();
+        }
+        if (configuration.isUseConnectionPool() && ObjectHelper.isNotEmpty(configuration.getSpoolDirectory())) {
+            startSpool();
+        }
+    }
+
+    private synchronized void startSpool() throws Exception {
+        WriteBehindSpool answer = new WriteBehindSpool(
+                this, new File(configuration.getSpoolDirectory()), configuration.getSpoolBatchSize(),
+                configuration.getSpoolRetryBackoff(), configuration.getSpoolMaxRetryBackoff(),
+                configuration.getSpoolMaxAttempts());
+        answer.start(getCamelContext().getExecutorServiceManager().newScheduledThreadPool(
+                this, "PooledSftpSpoolDrainer", Math.max(1, configuration.getSpoolDrainParallelism())));
+        spool = answer;
+    }
+
+    private synchronized void startMetrics() {
+        if (metrics == null) {
+            // reads the pool without acquiring it, so a stopped endpoint does not open one
+            metrics = new SftpEndpointMetrics(URISupport.sanitizeUri(getEndpointUri()), () -> connectionPool);
+        }
+        metrics.registerMBean(getCamelContext().getManagementStrategy());
+        HealthCheckRegistry registry = HealthCheckRegistry.get(getCamelContext());
+        if (registry != null) {
+            healthCheck = new SftpPoolHealthCheck(metrics.getEndpointUri(), metrics);
+            registry.register(healthCheck);
+        }
+    }
+
+    private synchronized void stopMetrics() {
+        if (metrics != null) {
+            metrics.unregisterMBean();
+        }
+        if (healthCheck != null) {
+            HealthCheckRegistry registry = HealthCheckRegistry.get(getCamelContext());
+            if (registry != null) {
+                registry.unregister(healthCheck);
+            }
+            healthCheck = null;
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        WriteBehindSpool current = spool;
+        if (current != null) {
+            // drains over the pool, so stopped before it
+            spool = null;
+            current.stop();
+        }
+        super.doStop();
+        synchronized (this) {
+            if (chunkedTransferExecutorService != null) {
+                getCamelContext().getExecutorServiceManager().shutdown(chunkedTransferExecutorService);
+                chunkedTransferExecutorService = null;
+            }
+            if (directoryWalkerExecutorService != null) {
+                getCamelContext().getExecutorServiceManager().shutdown(directoryWalkerExecutorService);
+                directoryWalkerExecutorService = null;
+            }
+            if (downloadExecutorService != null) {
+                getCamelContext().getExecutorServiceManager().shutdown(downloadExecutorService);
+                downloadExecutorService = null;
+            }
+            if (producerExecutorService != null) {
+                getCamelContext().getExecutorServiceManager().shutdown(producerExecutorService);
+                producerExecutorService = null;
+            }
+        }
+        stopMetrics();
+        releaseConnectionPool();
+    }
 }
@@ -1,19 +1,37 @@
 package com.mycompany.sftp.component;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
 import org.apache.camel.Exchange;
+import org.apache.camel.Message;
 import org.apache.camel.component.file.GenericFile;
 import org.apache.camel.component.file.GenericFileEndpoint;
 import org.apache.camel.component.file.GenericFileOperationFailedException;
+import org.apache.camel.component.file.remote.RemoteFileComponent;
 import org.apache.camel.component.file.remote.RemoteFileConfiguration;
 import org.apache.camel.component.file.remote.RemoteFileOperations;
-import org.apache.camel.component.file.remote.SftpEndpoint;
 import org.apache.camel.component.file.remote.SftpOperations;
 import org.apache.camel.component.file.remote.SftpRemoteFile;
+import org.apache.camel.component.file.remote.SftpRemoteFileJCraft;
+import org.apache.camel.util.FileUtil;
+import org.apache.camel.util.IOHelper;
+import org.apache.camel.util.ObjectHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mycompany.sftp.metrics.SftpEndpointMetrics;
+import com.mycompany.sftp.metrics.SftpEndpointMetrics.Operation;
+import com.mycompany.sftp.pool.RemoteDirectoryCache;
 import com.mycompany.sftp.pool.SftpConnection;
 import com.mycompany.sftp.pool.SftpConnectionPool;
 
@@ -22,14 +40,24 @@ import com.mycompany.sftp.pool.SftpConnectionPool;
  */
 public class PooledSftpOperations implements RemoteFileOperations<SftpRemoteFile> {
 
+    /**
+     * Exchange property holding the connection leased to a streamed download until its stream is released.
+     */
+    public static final String LEASED_CONNECTION = "CamelPooledSftpLeasedConnection";
+
+    private static final String LEASED_RETRIEVE = "CamelPooledSftpLeasedRetrieve";
+
     private static final Logger LOG = LoggerFactory.getLogger(PooledSftpOperations.class);
-    private final SftpConnectionPool pool;
-    private final SftpEndpoint endpoint;
+    private final PooledSftpEndpoint endpoint;
     private final SftpOperations delegate;
+    private final Function<SftpConnection, InjectableSftpOperations> operationsFactory;
+    private final ThreadLocal<PinnedConnection> pinnedConnection = new ThreadLocal<>();
+    private final ChunkedSftpTransfer chunkedTransfer;
 
-    public PooledSftpOperations(SftpConnectionPool pool, SftpEndpoint endpoint) {
-        this.pool = pool;
+    public PooledSftpOperations(PooledSftpEndpoint endpoint) {
         this.endpoint = endpoint;
+        this.operationsFactory = connection -> new InjectableSftpOperations(endpoint.getProxy(), connection);
+        this.chunkedTransfer = new ChunkedSftpTransfer(endpoint);
         // Delegate for non-connection specific methods (if any) or initial setup
         this.delegate = new InjectableSftpOperations(endpoint.getProxy());
         this.delegate.setEndpoint(endpoint);
@@ -53,7 +81,7 @@ public class PooledSftpOperations implements RemoteFileOperations<SftpRemoteFile
 
     @Override
     public boolean isConnected() throws GenericFileOperationFailedException {
-        return !pool.isClosed();
+        return !endpoint.getConnectionPool().isClosed();
     }
 
     @Override
@@ -78,7 +106,16 @@ public class PooledSftpOperations implements RemoteFileOperations<SftpRemoteFile
 
     @Override
     public boolean buildDirectory(String directory, boolean absolute) throws GenericFileOperationFailedException {
-        return doWithConnection(ops -> ops.buildDirectory(directory, absolute));
+        RemoteDirectoryCache cache = endpoint.getConnectionPool().getDirectoryCache();
+        if (cache != null && cache.contains(directory)) {
+            LOG.trace("Directory {} is known to exist", directory);
+            return true;
+        }
+        boolean answer = doWithConnection(ops -> ops.buildDirectory(directory, absolute));
+        if (answer && cache != null) {
+            cache.add(directory);
+        }
+        return answer;
     }
 
     @Override
@@ -98,27 +135,247 @@ public class PooledSftpOperations implements RemoteFileOperations<SftpRemoteFile
 
     @Override
     public SftpRemoteFile[] listFiles() throws GenericFileOperationFailedException {
-        return doWithConnection(ops -> ops.listFiles());
+        return measure(Operation.LIST, 0, () -> doWithConnection(ops -> ops.listFiles()));
     }
 
     @Override
     public SftpRemoteFile[] listFiles(String path) throws GenericFileOperationFailedException {
-        return doWithConnection(ops -> ops.listFiles(path));
+        return measure(Operation.LIST, 0, () -> doWithConnection(ops -> ops.listFiles(path)));
+    }
+
+    /**
+     * Lists the directory incrementally, handing the entries to the page handler in pages of at most
+     * <tt>pageSize</tt> as they arrive from the server, instead of collecting the whole directory first. The page is
+     * reused and only valid during the call. No more pages are handed over once the handler returns <tt>false</tt>.
+     */
+    public void listFiles(String path, int pageSize, Predicate<List<SftpRemoteFile>> pageHandler)
+            throws GenericFileOperationFailedException {
+        String dir = ObjectHelper.isEmpty(path) ? "." : path;
+        measure(Operation.LIST, 0, () -> doWithConnection(ops -> {
+            PagingSelector selector = new PagingSelector(Math.max(1, pageSize), pageHandler);
+            try {
+                ops.getChannel().ls(dir, selector);
+            } catch (SftpException e) {
+                throw new GenericFileOperationFailedException("Cannot list directory: " + dir, e);
+            }
+            selector.flush();
+            return null;
+        }));
     }
 
     @Override
     public boolean retrieveFile(String name, Exchange exchange, long size) throws GenericFileOperationFailedException {
-        return doWithConnection(ops -> ops.retrieveFile(name, exchange, size));
+        if (chunkedTransfer.isChunkedDownload(size)) {
+            return measure(Operation.RETRIEVE, size, () -> chunkedTransfer.retrieveFile(name, exchange, size));
+        }
+        if (endpoint.getConfiguration().isStreamDownload() && ObjectHelper.isEmpty(endpoint.getLocalWorkDirectory())) {
+            return measureLeasedStream(name, exchange, size);
+        }
+        return measure(Operation.RETRIEVE, size,
+                () -> doWithConnection(ops -> ops.retrieveFile(name, exchange, size)));
+    }
+
+    /**
+     * Retrieves the file as a leased stream. Opening the stream transfers nothing yet, so the retrieve is measured
+     * until {@link #releaseRetrievedFileResources(Exchange)}, once the route has read the stream.
+     */
+    private boolean measureLeasedStream(String name, Exchange exchange, long size) {
+        SftpEndpointMetrics metrics = endpoint.getMetrics();
+        if (metrics == null) {
+            return retrieveFileAsLeasedStream(name, exchange, size);
+        }
+        long start = System.nanoTime();
+        boolean answer = false;
+        try {
+            answer = retrieveFileAsLeasedStream(name, exchange, size);
+        } finally {
+            if (exchange.getProperty(LEASED_CONNECTION) != null) {
+                exchange.setProperty(LEASED_RETRIEVE, new LeasedRetrieve(start, size));
+            } else {
+                record(metrics, Operation.RETRIEVE, start, size, answer);
+            }
+        }
+        return answer;
     }
 
     @Override
     public void releaseRetrievedFileResources(Exchange exchange) throws GenericFileOperationFailedException {
-        delegate.releaseRetrievedFileResources(exchange);
+        SftpConnection connection = (SftpConnection) exchange.removeProperty(LEASED_CONNECTION);
+        if (connection == null) {
+            delegate.releaseRetrievedFileResources(exchange);
+            return;
+        }
+
+        LeasedRetrieve retrieve = (LeasedRetrieve) exchange.removeProperty(LEASED_RETRIEVE);
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        boolean success = false;
+        try {
+            bind(connection).releaseRetrievedFileResources(exchange);
+            success = true;
+        } catch (Exception e) {
+            invalidate(pool, connection);
+            throw new GenericFileOperationFailedException("Error releasing streamed SFTP download", e);
+        } finally {
+            SftpEndpointMetrics metrics = endpoint.getMetrics();
+            if (retrieve != null && metrics != null) {
+                record(metrics, Operation.RETRIEVE, retrieve.start, retrieve.size, success);
+            }
+        }
+        returnConnection(pool, connection);
+    }
+
+    /**
+     * Retrieves the file as a stream in the message body. The connection stays leased to the exchange until
+     * {@link #releaseRetrievedFileResources(Exchange)} closes the stream, so no other borrower can use the channel
+     * while the stream is being read.
+     */
+    private boolean retrieveFileAsLeasedStream(String name, Exchange exchange, long size) {
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        PinnedConnection pin = pinnedConnection.get();
+        SftpConnection connection = null;
+        try {
+            if (pin != null && pin.connection != null) {
+                // the lease takes over the pinned connection, the pin borrows another one when needed
+                connection = pin.connection;
+                pin.connection = null;
+            } else {
+                connection = endpoint.borrowConnection();
+            }
+            boolean answer = bind(connection).retrieveFile(name, exchange, size);
+            if (exchange.getIn().getHeader(RemoteFileComponent.REMOTE_FILE_INPUT_STREAM) != null) {
+                exchange.setProperty(LEASED_CONNECTION, connection);
+                connection = null;
+            }
+            return answer;
+        } catch (Exception e) {
+            if (!isNoSuchFile(e)) {
+                invalidate(pool, connection);
+                connection = null;
+            }
+            throw new GenericFileOperationFailedException("Error during pooled SFTP operation", e);
+        } finally {
+            if (connection != null) {
+                returnConnection(pool, connection);
+            }
+        }
     }
 
     @Override
     public boolean storeFile(String name, Exchange exchange, long size) throws GenericFileOperationFailedException {
-        return doWithConnection(ops -> ops.storeFile(name, exchange, size));
+        try {
+            File local = chunkedTransfer.getChunkedUploadFile(exchange);
+            if (local != null) {
+                return measure(Operation.STORE, local.length(), () -> chunkedTransfer.storeFile(name, local, this));
+            }
+            return measure(Operation.STORE, size > 0 ? size : getBodyLength(exchange),
+                    () -> doWithConnection(ops -> storeFile(ops, name, exchange, size)));
+        } catch (GenericFileOperationFailedException e) {
+            RemoteDirectoryCache cache = endpoint.getConnectionPool().getDirectoryCache();
+            String directory = FileUtil.onlyPath(name);
+            if (cache != null && directory != null && isNoSuchFile(e)) {
+                LOG.debug("Forgetting cached directory {} as storing {} failed with no such file", directory, name);
+                cache.invalidate(directory);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stores the file with the given operations. A body backed by a local file or a {@link ByteBuffer} is handed to
+     * JSch as an {@link UploadSourceInputStream}, rather than being converted to a stream by Camel, so the upload does
+     * not go through heap copies of the body.
+     */
+    private boolean storeFile(InjectableSftpOperations ops, String name, Exchange exchange, long size) {
+        Message message = exchange.getIn();
+        Object body = message.getBody();
+        InputStream source;
+        try {
+            source = openUploadSource(ops, body);
+        } catch (IOException e) {
+            throw new GenericFileOperationFailedException("Cannot open local file to store as: " + name, e);
+        }
+        if (source == null) {
+            return ops.storeFile(name, exchange, size);
+        }
+
+        message.setBody(source);
+        try {
+            return ops.storeFile(name, exchange, size);
+        } finally {
+            IOHelper.close(source);
+            message.setBody(body);
+        }
+    }
+
+    private InputStream openUploadSource(InjectableSftpOperations ops, Object body) throws IOException {
+        if (endpoint.getCharset() != null
+                || body instanceof GenericFile && ((GenericFile<?>) body).getCharset() != null) {
+            // the body is decoded and encoded again by the store
+            return null;
+        }
+        if (body instanceof ByteBuffer) {
+            return UploadSourceInputStream.ofBuffer((ByteBuffer) body);
+        }
+        Object file = body instanceof GenericFile ? ((GenericFile<?>) body).getFile() : body;
+        if (file instanceof File) {
+            return UploadSourceInputStream.ofFile(((File) file).toPath(), ops.getTransferBuffer());
+        }
+        return null;
+    }
+
+    /**
+     * The length of the message body to store, if it can be told without reading it, otherwise 0.
+     */
+    private static long getBodyLength(Exchange exchange) {
+        Object body = exchange.getIn().getBody();
+        if (body instanceof byte[]) {
+            return ((byte[]) body).length;
+        } else if (body instanceof File) {
+            return ((File) body).length();
+        } else if (body instanceof GenericFile) {
+            return ((GenericFile<?>) body).getFileLength();
+        } else if (body instanceof ByteBuffer) {
+            return ((ByteBuffer) body).remaining();
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the operation, recording its latency and bytes in the endpoint metrics, if enabled. An operation that
+     * throws or answers <tt>false</tt> counts as failed.
+     */
+    private <T> T measure(Operation operation, long bytes, Supplier<T> action) {
+        SftpEndpointMetrics metrics = endpoint.getMetrics();
+        if (metrics == null) {
+            return action.get();
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T answer = action.get();
+            success = !Boolean.FALSE.equals(answer);
+            return answer;
+        } finally {
+            record(metrics, operation, start, bytes, success);
+        }
+    }
+
+    private static void record(SftpEndpointMetrics metrics, Operation operation, long start, long bytes,
+                               boolean success) {
+        metrics.recordOperation(operation, System.nanoTime() - start, success ? bytes : 0, success);
+    }
+
+    /**
+     * Whether the server answered that the file does not exist, which leaves the connection usable, as when Camel
+     * deletes the target of a rename that may not be there.
+     */
+    private static boolean isNoSuchFile(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SftpException && ((SftpException) cause).id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -136,26 +393,59 @@ public class PooledSftpOperations implements RemoteFileOperations<SftpRemoteFile
         return doWithConnection(ops -> ops.sendSiteCommand(command));
     }
 
-    private <T> T doWithConnection(Function<SftpOperations, T> operation) {
+    /**
+     * Pins a pooled connection to the calling thread. Operations invoked by this thread reuse one borrowed
+     * connection, borrowed on first use, until {@link #unpinConnection()} returns it to the pool.
+     */
+    public void pinConnection() {
+        if (pinnedConnection.get() == null) {
+            pinnedConnection.set(new PinnedConnection());
+        }
+    }
+
+    /**
+     * Returns the connection pinned to the calling thread, if any, to the pool.
+     */
+    public void unpinConnection() {
+        PinnedConnection pin = pinnedConnection.get();
+        if (pin == null) {
+            return;
+        }
+        pinnedConnection.remove();
+        if (pin.connection != null) {
+            endpoint.getConnectionPool().returnObject(pin.connection);
+        }
+    }
+
+    /**
+     * Returns the connection pinned to the calling thread, if any, to the pool but keeps the pin, so the next
+     * operation of this thread borrows one again. Called before handing work to other threads, which would
+     * otherwise wait for the pinned connection when the pool has no other one to lend.
+     */
+    public void releasePinnedConnection() {
+        PinnedConnection pin = pinnedConnection.get();
+        if (pin != null && pin.connection != null) {
+            SftpConnection connection = pin.connection;
+            pin.connection = null;
+            endpoint.getConnectionPool().returnObject(connection);
+        }
+    }
+
+    private <T> T doWithConnection(Function<InjectableSftpOperations, T> operation) {
+        PinnedConnection pin = pinnedConnection.get();
+        if (pin != null) {
+            return doWithPinnedConnection(pin, operation);
+        }
+
+        SftpConnectionPool pool = endpoint.getConnectionPool();
         SftpConnection connection = null;
         try {
-            connection = pool.borrowObject();
-            
-            InjectableSftpOperations ops = new InjectableSftpOperations(endpoint.getProxy());
-            ops.setEndpoint(endpoint);
-            ops.setSession(connection.getSession());
-            ops.setChannel(connection.getChannel());
-            
-            return operation.apply(ops);
-            
+            connection = endpoint.borrowConnection();
+            return operation.apply(bind(connection));
         } catch (Exception e) {
-            try {
-                if (connection != null) {
-                    pool.invalidateObject(connection);
-                    connection = null;
-                }
-            } catch (Exception ie) {
-                // ignore
+            if (!isNoSuchFile(e)) {
+                invalidate(pool, connection);
+                connection = null;
             }
             throw new GenericFileOperationFailedException("Error during pooled SFTP operation", e);
         } finally {
@@ -164,4 +454,109 @@ public class PooledSftpOperations implements RemoteFileOperations<SftpRemoteFile
             }
         }
     }
+
+    private <T> T doWithPinnedConnection(PinnedConnection pin, Function<InjectableSftpOperations, T> operation) {
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        try {
+            if (pin.connection == null) {
+                pin.connection = endpoint.borrowConnection();
+            }
+            return operation.apply(bind(pin.connection));
+        } catch (Exception e) {
+            if (!isNoSuchFile(e)) {
+                // the next operation of this thread borrows a fresh connection
+                invalidate(pool, pin.connection);
+                pin.connection = null;
+            }
+            throw new GenericFileOperationFailedException("Error during pooled SFTP operation", e);
+        }
+    }
+
+    /**
+     * Hands a connection back to the calling thread's pin if it has none, otherwise returns it to the pool.
+     */
+    private void returnConnection(SftpConnectionPool pool, SftpConnection connection) {
+        PinnedConnection pin = pinnedConnection.get();
+        if (pin != null && pin.connection == null) {
+            pin.connection = connection;
+        } else {
+            pool.returnObject(connection);
+        }
+    }
+
+    private InjectableSftpOperations bind(SftpConnection connection) {
+        // the connection may be shared with other endpoints, so (re)target the bound operations to this one
+        InjectableSftpOperations ops = connection.getOperations(operationsFactory);
+        ops.setEndpoint(endpoint);
+        return ops;
+    }
+
+    private static void invalidate(SftpConnectionPool pool, SftpConnection connection) {
+        try {
+            if (connection != null) {
+                pool.invalidateObject(connection);
+            }
+        } catch (Exception ie) {
+            // ignore
+        }
+    }
+
+    /**
+     * Collects the entries of a listing into pages, handing each full page to the handler while JSCH keeps reading.
+     */
+    private static final class PagingSelector implements ChannelSftp.LsEntrySelector {
+
+        private final int pageSize;
+        private final Predicate<List<SftpRemoteFile>> pageHandler;
+        private final List<SftpRemoteFile> page;
+        private boolean stopped;
+
+        private PagingSelector(int pageSize, Predicate<List<SftpRemoteFile>> pageHandler) {
+            this.pageSize = pageSize;
+            this.pageHandler = pageHandler;
+            this.page = new ArrayList<>(Math.min(pageSize, 1024));
+        }
+
+        @Override
+        public int select(ChannelSftp.LsEntry entry) {
+            String name = entry.getFilename();
+            if (".".equals(name) || "..".equals(name)) {
+                return CONTINUE;
+            }
+            page.add(new SftpRemoteFileJCraft(entry));
+            if (page.size() >= pageSize) {
+                handlePage();
+            }
+            // JSCH skips the rest of the READDIR response and closes the directory handle
+            return stopped ? BREAK : CONTINUE;
+        }
+
+        void flush() {
+            if (!stopped && !page.isEmpty()) {
+                handlePage();
+            }
+        }
+
+        private void handlePage() {
+            stopped = !pageHandler.test(page);
+            page.clear();
+        }
+    }
+
+    private static final class PinnedConnection {
+        private SftpConnection connection;
+    }
+
+    /**
+     * A streamed download whose retrieve is measured once its stream is released.
+     */
+    private static final class LeasedRetrieve {
+        private final long start;
+        private final long size;
+
+        private LeasedRetrieve(long start, long size) {
+            this.start = start;
+            this.size = size;
+        }
+    }
 }
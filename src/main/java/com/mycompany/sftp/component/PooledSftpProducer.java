@@ -0,0 +1,76 @@
+package com.mycompany.sftp.component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProducer;
+import org.apache.camel.Exchange;
+import org.apache.camel.component.file.remote.RemoteFileProducer;
+import org.apache.camel.component.file.remote.SftpRemoteFile;
+import org.apache.camel.support.AsyncCallbackToCompletableFutureAdapter;
+
+/**
+ * SFTP producer that writes files on the endpoint's producer executor rather than on the routing thread.
+ * <p>
+ * The routing thread only hands the exchange over, and the {@link AsyncCallback} is completed once the file has been
+ * written. The number of exchanges in flight is bounded by asyncMaxInFlight, and exchanges beyond it fail right away
+ * with a {@link RejectedExecutionException}, so an exhausted connection pool pushes back on the route (for example to
+ * its error handler's redelivery) instead of blocking its threads.
+ */
+public class PooledSftpProducer extends RemoteFileProducer<SftpRemoteFile> implements AsyncProducer {
+
+    private final PooledSftpEndpoint endpoint;
+    private Semaphore inFlight;
+
+    public PooledSftpProducer(PooledSftpEndpoint endpoint, PooledSftpOperations operations) {
+        super(endpoint, operations);
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public boolean process(Exchange exchange, AsyncCallback callback) {
+        if (!inFlight.tryAcquire()) {
+            exchange.setException(new RejectedExecutionException(
+                    "Cannot write file as " + endpoint.getAsyncMaxInFlight() + " exchanges are already in flight on "
+                    + endpoint));
+            callback.done(true);
+            return true;
+        }
+
+        try {
+            endpoint.getProducerExecutorService().execute(() -> {
+                try {
+                    process(exchange);
+                } catch (Exception e) {
+                    exchange.setException(e);
+                } finally {
+                    inFlight.release();
+                    callback.done(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the endpoint is stopping
+            inFlight.release();
+            exchange.setException(e);
+            callback.done(true);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public CompletableFuture<Exchange> processAsync(Exchange exchange) {
+        AsyncCallbackToCompletableFutureAdapter<Exchange> callback = new AsyncCallbackToCompletableFutureAdapter<>(exchange);
+        process(exchange, callback);
+        return callback.getFuture();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        // shared by the producers of the endpoint, as a producer is created per exchange
+        inFlight = endpoint.getAsyncProducerPermits();
+    }
+}
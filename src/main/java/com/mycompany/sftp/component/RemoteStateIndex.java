@@ -0,0 +1,450 @@
+package com.mycompany.sftp.component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.camel.util.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The size and last modification time of every remote file a consumer has processed, so a poll only hands the files
+ * that are new or have changed since to the filters, idempotent repository and route.
+ * <p>
+ * The remote paths are kept as 64-bit hashes in an open-addressing table of primitive arrays, about 40 bytes per file
+ * and no object per entry. The chance that two of a million paths hash alike is about one in 30 million; such a file
+ * would only be skipped while its twin's size and time match it as well.
+ * <p>
+ * The table is persisted as an append-only log of fixed-size put and remove records, replayed when the index is
+ * opened. Appends are buffered and forced to disk by {@link #flush()}, so a crash loses at most the files processed
+ * since, which are then handed to the route again. The log is compacted to the live entries once it holds more than
+ * twice as many records.
+ * <p>
+ * Entries of files that were not listed by a complete poll, because they were deleted, moved or are now excluded,
+ * are removed by {@link #removeUnseen()}.
+ */
+public class RemoteStateIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteStateIndex.class);
+
+    private static final int MAGIC = 0x50535249;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_SIZE = 1 + 3 * Long.BYTES;
+    private static final int MIN_COMPACT_RECORDS = 4096;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Path file;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(RECORD_SIZE * 2048);
+    private FileChannel channel;
+    private FileLock lock;
+    private long logRecords;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private long[] lastModifieds = new long[INITIAL_CAPACITY];
+    private int[] seen = new int[INITIAL_CAPACITY];
+    private int size;
+    private int generation;
+    private long skipped;
+
+    private RemoteStateIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the index persisted in the given file, creating it if it does not exist yet.
+     *
+     * @throws IllegalStateException if the file is used by another index
+     */
+    public static RemoteStateIndex open(Path file) throws IOException {
+        RemoteStateIndex answer = new RemoteStateIndex(file);
+        answer.load();
+        return answer;
+    }
+
+    private void load() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock = tryLock(channel);
+        if (lock == null) {
+            IOHelper.close(channel);
+            channel = null;
+            throw new IllegalStateException("Remote state index " + file + " is used by another consumer");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE) {
+            writeHeader(channel);
+            return;
+        }
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            LOG.warn("Ignoring remote state index {} as it is not in the expected format", file);
+            channel.truncate(0);
+            writeHeader(channel);
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        long position = HEADER_SIZE;
+        while (channel.read(buffer, position + buffer.position()) > 0) {
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                byte op = buffer.get();
+                long key = buffer.getLong();
+                long fileSize = buffer.getLong();
+                long lastModified = buffer.getLong();
+                if (op == PUT) {
+                    put(key, fileSize, lastModified);
+                } else {
+                    remove(key);
+                }
+                logRecords++;
+                position += RECORD_SIZE;
+            }
+            buffer.compact();
+        }
+        if (channel.size() > position) {
+            // the tail of an append cut short by a crash
+            LOG.debug("Truncating incomplete record at the end of remote state index {}", file);
+            channel.truncate(position);
+        }
+        channel.position(position);
+        LOG.debug("Loaded {} entries from remote state index {}", size, file);
+    }
+
+    private static FileLock tryLock(FileChannel target) throws IOException {
+        try {
+            return target.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // locked by another index of this JVM
+            return null;
+        }
+    }
+
+    private static void writeHeader(FileChannel target) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            target.write(header, HEADER_SIZE - header.remaining());
+        }
+        target.position(HEADER_SIZE);
+    }
+
+    /**
+     * Starts a new scan of the remote directories, see {@link #removeUnseen()}.
+     */
+    public synchronized void beginScan() {
+        generation++;
+    }
+
+    /**
+     * Marks the file as seen by the current scan, and tells whether it was processed with the same size and last
+     * modification time before.
+     */
+    public synchronized boolean isUnchanged(String path, long fileSize, long lastModified) {
+        int slot = find(hash(path));
+        if (slot < 0) {
+            return false;
+        }
+        seen[slot] = generation;
+        if (sizes[slot] == fileSize && lastModifieds[slot] == lastModified) {
+            skipped++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records that the file has been processed with the given size and last modification time.
+     */
+    public synchronized void record(String path, long fileSize, long lastModified) {
+        long key = hash(path);
+        int slot = find(key);
+        if (slot >= 0 && sizes[slot] == fileSize && lastModifieds[slot] == lastModified) {
+            seen[slot] = generation;
+            return;
+        }
+        put(key, fileSize, lastModified);
+        append(PUT, key, fileSize, lastModified);
+    }
+
+    /**
+     * Removes the entries of the files that were not seen since {@link #beginScan()}, which must only be called once
+     * the scan has listed every remote directory of the consumer.
+     *
+     * @return the number of entries removed
+     */
+    public synchronized int removeUnseen() {
+        int removed = 0;
+        int slot = 0;
+        while (slot < keys.length) {
+            if (keys[slot] != 0 && seen[slot] != generation) {
+                long key = keys[slot];
+                // the entries shifted back into this slot are checked next
+                removeSlot(slot);
+                append(REMOVE, key, 0, 0);
+                removed++;
+            } else {
+                slot++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Writes the appended records and forces them to disk, compacting the log if it has grown too large.
+     */
+    public synchronized void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        writeBuffer();
+        if (logRecords > MIN_COMPACT_RECORDS && logRecords > 2L * size) {
+            compact();
+        } else {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Writes the live entries to a new log, locked before it replaces the current one, so the index file is locked
+     * by this index throughout and no other consumer can open it in between.
+     */
+    private void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock targetLock = null;
+        try {
+            targetLock = tryLock(target);
+            if (targetLock == null) {
+                throw new IllegalStateException("Cannot compact remote state index " + file + " as " + temp
+                                                + " is used by another consumer");
+            }
+            writeHeader(target);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0) {
+                    if (writeBuffer.remaining() < RECORD_SIZE) {
+                        drain(target);
+                    }
+                    writeBuffer.put(PUT).putLong(keys[slot]).putLong(sizes[slot]).putLong(lastModifieds[slot]);
+                }
+            }
+            drain(target);
+            target.force(true);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // keeps appending to the current log
+            writeBuffer.clear();
+            if (targetLock != null) {
+                targetLock.release();
+            }
+            IOHelper.close(target);
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        LOG.debug("Compacted remote state index {} from {} to {} records", file, logRecords, size);
+
+        closeChannel();
+        channel = target;
+        lock = targetLock;
+        channel.position(channel.size());
+        logRecords = size;
+    }
+
+    private void append(byte op, long key, long fileSize, long lastModified) {
+        if (writeBuffer.remaining() < RECORD_SIZE) {
+            try {
+                writeBuffer();
+            } catch (IOException e) {
+                // the records are lost, so the files are handed to the route again after a restart
+                LOG.warn("Cannot write to remote state index {} due {}", file, e.getMessage());
+                writeBuffer.clear();
+            }
+        }
+        writeBuffer.put(op).putLong(key).putLong(fileSize).putLong(lastModified);
+        logRecords++;
+    }
+
+    private void writeBuffer() throws IOException {
+        if (channel != null) {
+            drain(channel);
+        }
+    }
+
+    private void drain(FileChannel target) throws IOException {
+        writeBuffer.flip();
+        try {
+            while (writeBuffer.hasRemaining()) {
+                target.write(writeBuffer);
+            }
+        } finally {
+            writeBuffer.clear();
+        }
+    }
+
+    /**
+     * Flushes the appended records and releases the file.
+     */
+    public synchronized void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            LOG.warn("Cannot flush remote state index {} due {}", file, e.getMessage());
+        }
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        try {
+            if (lock != null && lock.isValid()) {
+                lock.release();
+            }
+        } catch (IOException e) {
+            LOG.debug("Cannot release lock of remote state index {} due {}", file, e.getMessage());
+        }
+        lock = null;
+        IOHelper.close(channel);
+        channel = null;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) key & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void put(long key, long fileSize, long lastModified) {
+        if (size * 2 >= keys.length) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int slot = (int) key & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == 0) {
+            size++;
+        }
+        keys[slot] = key;
+        sizes[slot] = fileSize;
+        lastModifieds[slot] = lastModified;
+        seen[slot] = generation;
+    }
+
+    private void remove(long key) {
+        int slot = find(key);
+        if (slot >= 0) {
+            removeSlot(slot);
+        }
+    }
+
+    /**
+     * Empties the slot, shifting back the entries of the probe sequence after it so lookups still find them.
+     */
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != 0) {
+            int home = (int) keys[next] & mask;
+            // move the entry if the hole lies between its home slot and its current slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                sizes[hole] = sizes[next];
+                lastModifieds[hole] = lastModifieds[next];
+                seen[hole] = seen[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = 0;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldSizes = sizes;
+        long[] oldLastModifieds = lastModifieds;
+        int[] oldSeen = seen;
+        keys = new long[capacity];
+        sizes = new long[capacity];
+        lastModifieds = new long[capacity];
+        seen = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = (int) oldKeys[i] & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                sizes[slot] = oldSizes[i];
+                lastModifieds[slot] = oldLastModifieds[i];
+                seen[slot] = oldSeen[i];
+            }
+        }
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the path, mixed so the low bits used by the table are well spread. 0 marks an empty
+     * slot, so it is never returned.
+     */
+    static long hash(String path) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            h ^= path.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+    /**
+     * The number of files in the index.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * How many listed files were skipped as unchanged.
+     */
+    public synchronized long getSkippedCount() {
+        return skipped;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteStateIndex[" + file + ", size=" + size() + "]";
+    }
+}
@@ -0,0 +1,31 @@
+package com.mycompany.sftp.component;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.component.file.remote.RemoteFileProducer;
+import org.apache.camel.component.file.remote.SftpRemoteFile;
+
+/**
+ * SFTP producer that appends the file to the endpoint's {@link WriteBehindSpool} and returns as soon as it is safely
+ * on local disk, so the route does not wait for the server. The spool uploads it later.
+ */
+public class SpoolingSftpProducer extends RemoteFileProducer<SftpRemoteFile> {
+
+    private final PooledSftpEndpoint endpoint;
+
+    public SpoolingSftpProducer(PooledSftpEndpoint endpoint, PooledSftpOperations operations) {
+        super(endpoint, operations);
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Spools the file under the remote path the regular producer would store it as, resolved now as the headers it
+     * depends on are not spooled.
+     */
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        String name = createFileName(exchange);
+        endpoint.getSpool().append(name, exchange);
+        // only for this write, as the regular producer does
+        exchange.getIn().removeHeader(Exchange.OVERRULE_FILE_NAME);
+    }
+}
@@ -0,0 +1,86 @@
+package com.mycompany.sftp.component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A stream over a file or a {@link ByteBuffer} to upload, read by JSch straight into its write packets.
+ * <p>
+ * <tt>ChannelSftp.put</tt> reads the stream into the buffer of the packet it is about to send, so this stream copies
+ * the data directly there: from a {@link FileChannel} through a direct transfer buffer that is reused for every upload
+ * over the connection, or from the body buffer, which may be memory mapped. Neither the file nor the buffer is
+ * converted to a heap copy first, so the heap allocated does not grow with the size of the upload.
+ */
+final class UploadSourceInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private UploadSourceInputStream(FileChannel channel, ByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * A stream over the file, read through the given transfer buffer.
+     */
+    static UploadSourceInputStream ofFile(Path file, ByteBuffer transferBuffer) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        transferBuffer.clear().flip();
+        return new UploadSourceInputStream(channel, transferBuffer);
+    }
+
+    /**
+     * A stream over the remaining bytes of the buffer, which is left unchanged.
+     */
+    static UploadSourceInputStream ofBuffer(ByteBuffer body) {
+        return new UploadSourceInputStream(null, body.duplicate());
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && (channel == null || !fill())) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && (channel == null || !fill())) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int n;
+        do {
+            n = channel.read(buffer);
+        } while (n == 0);
+        buffer.flip();
+        return n > 0;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package com.mycompany.sftp.component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.component.file.GenericFile;
+import org.apache.camel.component.file.remote.RemoteFileProducer;
+import org.apache.camel.component.file.remote.SftpRemoteFile;
+import org.apache.camel.support.service.ServiceHelper;
+import org.apache.camel.util.FileUtil;
+import org.apache.camel.util.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mycompany.sftp.pool.SftpUtils;
+
+/**
+ * A local, crash-safe spool of files to upload, drained to the server in the background.
+ * <p>
+ * A spooled file is kept as two files in the spool directory: <tt>&lt;sequence&gt;.data</tt> with the content and
+ * <tt>&lt;sequence&gt;.meta</tt> with the remote path of the target file. Both are written to temporary files, forced to disk and
+ * then renamed, the meta file last, so an entry exists only once it is complete. Entries found in the directory on
+ * start are drained as well, so files spooled before a crash or restart are still delivered. A file may be uploaded
+ * twice if the process dies between uploading it and removing its entry.
+ * <p>
+ * The entries are drained per target directory in the order they were spooled, in batches over one pinned pooled
+ * connection, with at most <tt>spoolDrainParallelism</tt> directories at a time. When an upload fails its directory is
+ * retried after an exponential, jittered backoff, and later entries of that directory wait, so they never overtake
+ * it. An entry that still fails after <tt>spoolMaxAttempts</tt> attempts, such as one rejected by
+ * <tt>fileExist=Fail</tt> or a missing permission, is moved to the <tt>error</tt> subdirectory of the spool so it no
+ * longer holds up its directory. The attempts are counted from the start of the spool.
+ */
+public class WriteBehindSpool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindSpool.class);
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = ".lock";
+    private static final String ERROR_DIRECTORY = "error";
+    /**
+     * Exchange property with the remote path a spooled file is uploaded to.
+     */
+    private static final String SPOOLED_FILE_NAME = "CamelPooledSftpSpooledFileName";
+    private static final long DRAIN_INTERVAL_MILLIS = 500;
+
+    private final PooledSftpEndpoint endpoint;
+    private final Path directory;
+    private final int batchSize;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxAttempts;
+
+    private final Map<String, DirectoryQueue> queues = new LinkedHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong uploaded = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private int pending;
+
+    private PooledSftpOperations operations;
+    private RemoteFileProducer<SftpRemoteFile> producer;
+    private ScheduledExecutorService executor;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private volatile boolean running;
+
+    /**
+     * @param maxAttempts attempts to upload an entry before it is moved to the error directory, 0 to retry forever
+     */
+    public WriteBehindSpool(PooledSftpEndpoint endpoint, File directory, int batchSize, long baseBackoffMillis,
+                            long maxBackoffMillis, int maxAttempts) {
+        this.endpoint = endpoint;
+        this.directory = directory.toPath();
+        this.batchSize = Math.max(1, batchSize);
+        this.baseBackoffMillis = Math.max(1, baseBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.baseBackoffMillis, maxBackoffMillis);
+        this.maxAttempts = Math.max(0, maxAttempts);
+    }
+
+    /**
+     * Locks the spool directory, recovers the entries already in it, and starts draining on the executor, which is
+     * shut down when the spool is stopped.
+     */
+    public synchronized void start(ScheduledExecutorService executor) throws Exception {
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(
+                directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (lock == null) {
+            IOHelper.close(lockChannel);
+            throw new IllegalStateException("Spool directory " + directory + " is used by another process");
+        }
+        recover();
+
+        operations = (PooledSftpOperations) endpoint.createRemoteFileOperations();
+        producer = new DrainProducer(endpoint, operations);
+        ServiceHelper.startService(producer);
+
+        this.executor = executor;
+        running = true;
+        executor.scheduleWithFixedDelay(this::drain, 0, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        LOG.info("Started write-behind spool {} with {} pending file(s)", directory, pending);
+    }
+
+    /**
+     * Stops draining. The entries not uploaded yet stay in the spool directory for the next start.
+     */
+    public void stop() {
+        ScheduledExecutorService toStop;
+        synchronized (this) {
+            running = false;
+            toStop = executor;
+            executor = null;
+        }
+        if (toStop != null) {
+            // lets the batches in flight finish their current upload
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(toStop, 30000);
+        }
+        synchronized (this) {
+            ServiceHelper.stopService(producer);
+            producer = null;
+            try {
+                if (lock != null) {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                LOG.debug("Cannot release lock of spool {} due {}", directory, e.getMessage());
+            }
+            IOHelper.close(lockChannel);
+            lock = null;
+            lockChannel = null;
+            queues.clear();
+            pending = 0;
+        }
+    }
+
+    /**
+     * Spools the message body to be uploaded to the given remote path, as resolved by the producer. Returns once the
+     * entry is safely on disk.
+     */
+    public void append(String name, Exchange exchange) throws Exception {
+        if (!running) {
+            throw new IllegalStateException("Write-behind spool " + directory + " is not started");
+        }
+        long seq = sequence.incrementAndGet();
+        String base = String.format("%020d", seq);
+        Path data = directory.resolve(base + DATA_SUFFIX);
+        Path meta = directory.resolve(base + META_SUFFIX);
+        Path dataTemp = directory.resolve(base + DATA_SUFFIX + TEMP_SUFFIX);
+        Path metaTemp = directory.resolve(base + META_SUFFIX + TEMP_SUFFIX);
+        try {
+            writeBody(exchange, dataTemp);
+            Properties properties = new Properties();
+            properties.setProperty("name", name);
+            try (Writer writer = Files.newBufferedWriter(metaTemp, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            force(metaTemp);
+            Files.move(dataTemp, data, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(metaTemp, meta, StandardCopyOption.ATOMIC_MOVE);
+            force(directory);
+        } catch (Exception e) {
+            Files.deleteIfExists(dataTemp);
+            Files.deleteIfExists(metaTemp);
+            Files.deleteIfExists(data);
+            throw e;
+        }
+
+        enqueue(new Entry(seq, name, data, meta));
+        ScheduledExecutorService current = executor;
+        if (current != null) {
+            try {
+                current.execute(this::drain);
+            } catch (RuntimeException e) {
+                // stopping, the entry is drained after the next start
+            }
+        }
+    }
+
+    private void writeBody(Exchange exchange, Path target) throws Exception {
+        Object body = exchange.getIn().getBody();
+        Object file = body instanceof GenericFile ? ((GenericFile<?>) body).getFile() : body;
+        if (file instanceof File) {
+            Files.copy(((File) file).toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            try (InputStream in = exchange.getIn().getMandatoryBody(InputStream.class)) {
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        force(target);
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!Files.isDirectory(path)) {
+                throw e;
+            }
+            // not every platform can open a directory to force it
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(TEMP_SUFFIX)) {
+                    // not completely spooled, so not acknowledged either
+                    Files.deleteIfExists(file);
+                } else if (fileName.endsWith(META_SUFFIX)) {
+                    Entry entry = load(file);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                } else if (fileName.endsWith(DATA_SUFFIX)
+                           && !Files.exists(directory.resolve(stripSuffix(fileName, DATA_SUFFIX) + META_SUFFIX))) {
+                    // uploaded, and removed up to the data
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        entries.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        for (Entry entry : entries) {
+            enqueue(entry);
+            sequence.accumulateAndGet(entry.sequence, Math::max);
+        }
+    }
+
+    private Entry load(Path meta) throws IOException {
+        String base = stripSuffix(meta.getFileName().toString(), META_SUFFIX);
+        Path data = directory.resolve(base + DATA_SUFFIX);
+        long seq;
+        try {
+            seq = Long.parseLong(base);
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring unknown file {} in spool {}", meta, directory);
+            return null;
+        }
+        if (!Files.exists(data)) {
+            LOG.warn("Removing spool entry {} as its data is missing", meta);
+            Files.deleteIfExists(meta);
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return new Entry(seq, properties.getProperty("name"), data, meta);
+    }
+
+    private static String stripSuffix(String fileName, String suffix) {
+        return fileName.substring(0, fileName.length() - suffix.length());
+    }
+
+    private synchronized void enqueue(Entry entry) {
+        String targetDirectory = FileUtil.onlyPath(entry.name);
+        queues.computeIfAbsent(targetDirectory != null ? targetDirectory : "", d -> new DirectoryQueue())
+                .entries.addLast(entry);
+        pending++;
+    }
+
+    /**
+     * Starts a batch for every directory with entries that is neither being drained nor backing off.
+     */
+    private void drain() {
+        List<DirectoryQueue> ready = new ArrayList<>();
+        ScheduledExecutorService current;
+        synchronized (this) {
+            current = executor;
+            if (!running || current == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            Iterator<DirectoryQueue> it = queues.values().iterator();
+            while (it.hasNext()) {
+                DirectoryQueue queue = it.next();
+                if (queue.entries.isEmpty() && !queue.draining) {
+                    it.remove();
+                } else if (!queue.draining && !queue.entries.isEmpty() && now - queue.retryAt >= 0) {
+                    queue.draining = true;
+                    ready.add(queue);
+                }
+            }
+        }
+        for (DirectoryQueue queue : ready) {
+            try {
+                current.execute(() -> drainBatch(queue));
+            } catch (RuntimeException e) {
+                // stopping
+                synchronized (this) {
+                    queue.draining = false;
+                }
+            }
+        }
+    }
+
+    private void drainBatch(DirectoryQueue queue) {
+        operations.pinConnection();
+        try {
+            for (int i = 0; i < batchSize && running; i++) {
+                Entry entry;
+                synchronized (this) {
+                    entry = queue.entries.peekFirst();
+                }
+                if (entry == null) {
+                    break;
+                }
+                Exception failure = upload(entry);
+                if (failure != null && !onFailure(queue, entry, failure)) {
+                    break;
+                }
+                if (failure == null) {
+                    remove(entry);
+                    uploaded.incrementAndGet();
+                }
+                synchronized (this) {
+                    queue.entries.pollFirst();
+                    queue.backoffMillis = 0;
+                    pending--;
+                }
+            }
+        } finally {
+            operations.unpinConnection();
+            boolean more;
+            synchronized (this) {
+                queue.draining = false;
+                more = !queue.entries.isEmpty() && System.nanoTime() - queue.retryAt >= 0;
+            }
+            if (more) {
+                drain();
+            }
+        }
+    }
+
+    private Exception upload(Entry entry) {
+        Exchange exchange = endpoint.createExchange();
+        exchange.getIn().setBody(entry.data.toFile());
+        exchange.setProperty(SPOOLED_FILE_NAME, entry.name);
+        try {
+            producer.process(exchange);
+        } catch (Exception e) {
+            exchange.setException(e);
+        }
+        return exchange.getException();
+    }
+
+    private void remove(Entry entry) {
+        try {
+            // the meta first, an entry without meta is removed on recovery rather than uploaded again
+            Files.deleteIfExists(entry.meta);
+            Files.deleteIfExists(entry.data);
+        } catch (IOException e) {
+            LOG.warn("Cannot remove uploaded spool entry {} due {}", entry.meta, e.getMessage());
+        }
+    }
+
+    /**
+     * Puts the directory of the entry in backoff, or moves the entry to the error directory once it has used up its
+     * attempts.
+     *
+     * @return <tt>true</tt> if the entry was moved to the error directory, and the next one can be uploaded
+     */
+    private boolean onFailure(DirectoryQueue queue, Entry entry, Exception failure) {
+        failedAttempts.incrementAndGet();
+        entry.attempts++;
+        if (maxAttempts > 0 && entry.attempts >= maxAttempts) {
+            moveToErrorDirectory(entry, failure);
+            return true;
+        }
+        long jittered;
+        synchronized (this) {
+            queue.backoffMillis = queue.backoffMillis == 0
+                    ? baseBackoffMillis : Math.min(maxBackoffMillis, queue.backoffMillis * 2);
+            jittered = SftpUtils.jitter(queue.backoffMillis);
+            queue.retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(jittered);
+        }
+        LOG.warn("Cannot upload spooled file {} to {}, retrying in {} ms due {}", entry.name, endpoint, jittered,
+                failure.getMessage());
+        return false;
+    }
+
+    private void moveToErrorDirectory(Entry entry, Exception failure) {
+        failed.incrementAndGet();
+        Path errorDirectory = directory.resolve(ERROR_DIRECTORY);
+        try {
+            Files.createDirectories(errorDirectory);
+            // the data first, as without its meta an entry is not recovered
+            Files.move(entry.data, errorDirectory.resolve(entry.data.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(entry.meta, errorDirectory.resolve(entry.meta.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            LOG.error("Cannot upload spooled file {} to {} after {} attempts, moved it to {} due {}", entry.name,
+                    endpoint, entry.attempts, errorDirectory, failure.getMessage(), failure);
+        } catch (IOException e) {
+            LOG.error("Cannot upload spooled file {} to {} after {} attempts, and cannot move it to {} due {}",
+                    entry.name, endpoint, entry.attempts, errorDirectory, e.getMessage(), failure);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * The number of spooled files not uploaded yet.
+     */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public long getUploadedCount() {
+        return uploaded.get();
+    }
+
+    /**
+     * How many uploads of spooled files failed.
+     */
+    public long getFailedAttemptCount() {
+        return failedAttempts.get();
+    }
+
+    /**
+     * How many spooled files were given up on and moved to the error directory.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindSpool[" + directory + "]";
+    }
+
+    private static final class Entry {
+        private final long sequence;
+        private final String name;
+        private final Path data;
+        private final Path meta;
+        private int attempts;
+
+        private Entry(long sequence, String name, Path data, Path meta) {
+            this.sequence = sequence;
+            this.name = name;
+            this.data = data;
+            this.meta = meta;
+        }
+    }
+
+    private static final class DirectoryQueue {
+        private final Deque<Entry> entries = new ArrayDeque<>();
+        private boolean draining;
+        private long retryAt = System.nanoTime();
+        private long backoffMillis;
+    }
+
+    /**
+     * Uploads the spooled files with the regular producer logic of the endpoint, to the remote path resolved when
+     * they were spooled.
+     */
+    private static final class DrainProducer extends RemoteFileProducer<SftpRemoteFile> {
+        private DrainProducer(PooledSftpEndpoint endpoint, PooledSftpOperations operations) {
+            super(endpoint, operations);
+        }
+
+        @Override
+        public String createFileName(Exchange exchange) {
+            return exchange.getProperty(SPOOLED_FILE_NAME, String.class);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package com.mycompany.sftp.idempotent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedOperation;
+import org.apache.camel.api.management.ManagedResource;
+import org.apache.camel.spi.IdempotentRepository;
+import org.apache.camel.support.service.ServiceSupport;
+import org.apache.camel.util.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An idempotent repository for consumers seeing millions of file keys, such as <tt>path/name-size-mtime</tt>, that
+ * keeps them outside the heap in a fixed amount of memory.
+ * <p>
+ * Each key is stored as its 128-bit hash, with the time it was added and last looked up, in a 32 byte slot of a
+ * set-associative table: the hash picks a set of 8 slots, and when the set is full the least recently used key of the
+ * set is evicted, so the memory used never grows beyond about 32 bytes times <tt>maxEntries</tt> and no key is ever
+ * an object on the heap. Keys older than <tt>expireAfter</tt> are treated as absent and their slots reused. Two keys
+ * are only mistaken for each other if all 128 bits of their hashes are equal.
+ * <p>
+ * The table lives in a direct buffer, or, when a <tt>file</tt> is set, in a file mapped into memory, so the keys
+ * survive restarts without being loaded: the operating system pages the table in as it is used. The file is locked
+ * while the repository is started, and is reinitialized if its geometry does not match <tt>maxEntries</tt>.
+ */
+@ManagedResource(description = "Off-heap idempotent repository")
+public class OffHeapIdempotentRepository extends ServiceSupport implements IdempotentRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapIdempotentRepository.class);
+
+    private static final long MAGIC = 0x5053465449444d31L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int WAYS = 8;
+    private static final int SLOT_SIZE = 32;
+    private static final int SET_SIZE = WAYS * SLOT_SIZE;
+    private static final int MAX_LOCK_STRIPES = 1024;
+
+    private static final int HASH_HI = 0;
+    private static final int HASH_LO = 8;
+    private static final int ADDED = 16;
+    private static final int ACCESSED = 24;
+
+    private static final ThreadLocal<long[]> HASH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private int maxEntries = 1_000_000;
+    private long expireAfter;
+    private String file;
+
+    private volatile ByteBuffer table;
+    private int setMask;
+    private Object[] locks;
+    private FileChannel channel;
+    private FileLock fileLock;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public OffHeapIdempotentRepository() {
+    }
+
+    public OffHeapIdempotentRepository(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Creates a repository kept in memory, and lost when it is stopped.
+     */
+    public static IdempotentRepository offHeapIdempotentRepository(int maxEntries) {
+        return new OffHeapIdempotentRepository(maxEntries);
+    }
+
+    /**
+     * Creates a repository persisted in the given file.
+     */
+    public static IdempotentRepository offHeapIdempotentRepository(String file, int maxEntries) {
+        OffHeapIdempotentRepository answer = new OffHeapIdempotentRepository(maxEntries);
+        answer.setFile(file);
+        return answer;
+    }
+
+    @Override
+    public boolean add(String key) {
+        ByteBuffer table = startedTable();
+        long[] hash = hash(key);
+        int set = setOf(hash);
+        long now = System.currentTimeMillis();
+        synchronized (lockOf(set)) {
+            int base = HEADER_SIZE + set * SET_SIZE;
+            int found = find(table, base, hash);
+            if (found >= 0 && !isExpired(table, found, now)) {
+                table.putLong(found + ACCESSED, now);
+                return false;
+            }
+
+            int slot = found >= 0 ? found : victim(table, base, now);
+            if (isEmpty(table, slot)) {
+                size.incrementAndGet();
+            } else if (slot != found && !isExpired(table, slot, now)) {
+                evictions.incrementAndGet();
+            }
+            table.putLong(slot + HASH_HI, hash[0]);
+            table.putLong(slot + HASH_LO, hash[1]);
+            table.putLong(slot + ADDED, now);
+            table.putLong(slot + ACCESSED, now);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        ByteBuffer table = startedTable();
+        long[] hash = hash(key);
+        int set = setOf(hash);
+        long now = System.currentTimeMillis();
+        synchronized (lockOf(set)) {
+            int found = find(table, HEADER_SIZE + set * SET_SIZE, hash);
+            if (found < 0) {
+                return false;
+            }
+            if (isExpired(table, found, now)) {
+                clearSlot(table, found);
+                return false;
+            }
+            table.putLong(found + ACCESSED, now);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean remove(String key) {
+        ByteBuffer table = startedTable();
+        long[] hash = hash(key);
+        int set = setOf(hash);
+        synchronized (lockOf(set)) {
+            int found = find(table, HEADER_SIZE + set * SET_SIZE, hash);
+            if (found < 0) {
+                return false;
+            }
+            clearSlot(table, found);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean confirm(String key) {
+        // added keys are always confirmed
+        return true;
+    }
+
+    @Override
+    @ManagedOperation(description = "Clear the store (danger this removes all entries)")
+    public void clear() {
+        ByteBuffer table = this.table;
+        if (table == null) {
+            return;
+        }
+        int sets = setMask + 1;
+        for (int set = 0; set < sets; set++) {
+            synchronized (lockOf(set)) {
+                int base = HEADER_SIZE + set * SET_SIZE;
+                for (int slot = base; slot < base + SET_SIZE; slot += SLOT_SIZE) {
+                    if (!isEmpty(table, slot)) {
+                        clearSlot(table, slot);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The table, read once per call so a call racing {@link #stop()} works on the table it started with, or fails
+     * as the repository is not started.
+     */
+    private ByteBuffer startedTable() {
+        ByteBuffer answer = table;
+        if (answer == null) {
+            throw new IllegalStateException("OffHeapIdempotentRepository is not started");
+        }
+        return answer;
+    }
+
+    private static int find(ByteBuffer table, int base, long[] hash) {
+        for (int slot = base; slot < base + SET_SIZE; slot += SLOT_SIZE) {
+            if (table.getLong(slot + HASH_HI) == hash[0] && table.getLong(slot + HASH_LO) == hash[1]) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The slot of the set to store a new key in: an empty slot, else an expired one, else the least recently used.
+     */
+    private int victim(ByteBuffer table, int base, long now) {
+        int answer = -1;
+        long oldest = Long.MAX_VALUE;
+        for (int slot = base; slot < base + SET_SIZE; slot += SLOT_SIZE) {
+            if (isEmpty(table, slot)) {
+                return slot;
+            }
+            if (isExpired(table, slot, now)) {
+                oldest = Long.MIN_VALUE;
+                answer = slot;
+            } else if (table.getLong(slot + ACCESSED) < oldest) {
+                oldest = table.getLong(slot + ACCESSED);
+                answer = slot;
+            }
+        }
+        return answer;
+    }
+
+    private static boolean isEmpty(ByteBuffer table, int slot) {
+        return table.getLong(slot + HASH_HI) == 0 && table.getLong(slot + HASH_LO) == 0;
+    }
+
+    private boolean isExpired(ByteBuffer table, int slot, long now) {
+        return expireAfter > 0 && now - table.getLong(slot + ADDED) >= expireAfter;
+    }
+
+    private void clearSlot(ByteBuffer table, int slot) {
+        for (int offset = 0; offset < SLOT_SIZE; offset += Long.BYTES) {
+            table.putLong(slot + offset, 0);
+        }
+        size.decrementAndGet();
+    }
+
+    private int setOf(long[] hash) {
+        return (int) (hash[0] >>> 32) & setMask;
+    }
+
+    private Object lockOf(int set) {
+        return locks[set & (locks.length - 1)];
+    }
+
+    /**
+     * The 128-bit MurmurHash3 of the UTF-16 code units of the key, hashed without encoding it first. Never all zero,
+     * which marks an empty slot. The two halves are returned in an array reused by the calling thread, so a lookup
+     * does not allocate; it is only valid until the next hash of the thread.
+     */
+    static long[] hash(String key) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        int length = key.length();
+        long h1 = 0;
+        long h2 = 0;
+
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long k1 = chars(key, i, 4);
+            long k2 = chars(key, i + 4, 4);
+            k1 *= c1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= c2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            k2 *= c2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= c1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = length - i;
+        if (tail > 4) {
+            long k2 = chars(key, i + 4, tail - 4);
+            k2 *= c2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= c1;
+            h2 ^= k2;
+        }
+        if (tail > 0) {
+            long k1 = chars(key, i, Math.min(4, tail));
+            k1 *= c1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= c2;
+            h1 ^= k1;
+        }
+
+        h1 ^= length * 2L;
+        h2 ^= length * 2L;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        long[] answer = HASH.get();
+        answer[0] = h1;
+        answer[1] = h1 == 0 && h2 == 0 ? 1 : h2;
+        return answer;
+    }
+
+    private static long chars(String key, int from, int count) {
+        long answer = 0;
+        for (int j = 0; j < count; j++) {
+            answer |= (long) key.charAt(from + j) << (16 * j);
+        }
+        return answer;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        int sets = Integer.highestOneBit(Math.max(1, (maxEntries + WAYS - 1) / WAYS));
+        if (sets * WAYS < maxEntries) {
+            sets <<= 1;
+        }
+        long bytes = HEADER_SIZE + (long) sets * SET_SIZE;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxEntries " + maxEntries + " needs more than 2 GB");
+        }
+        setMask = sets - 1;
+        locks = new Object[Math.min(sets, MAX_LOCK_STRIPES)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        if (file == null) {
+            table = ByteBuffer.allocateDirect((int) bytes);
+            size.set(0);
+        } else {
+            table = map(Paths.get(file), (int) bytes, sets);
+        }
+        LOG.debug("Started off-heap idempotent repository with {} sets of {} entries ({} bytes){}", sets, WAYS, bytes,
+                file != null ? " mapped from " + file : "");
+    }
+
+    private MappedByteBuffer map(Path path, int bytes, int sets) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // locked by another repository of this JVM
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            IOHelper.close(channel);
+            channel = null;
+            throw new IllegalStateException("Idempotent repository file " + path + " is used by another repository");
+        }
+
+        long existing = channel.size();
+        if (existing > bytes) {
+            channel.truncate(bytes);
+        }
+        MappedByteBuffer answer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        if (existing == bytes && answer.getLong(0) == MAGIC && answer.getInt(8) == VERSION && answer.getInt(12) == sets
+                && answer.getInt(16) == WAYS) {
+            int entries = 0;
+            for (int slot = HEADER_SIZE; slot < bytes; slot += SLOT_SIZE) {
+                if (answer.getLong(slot + HASH_HI) != 0 || answer.getLong(slot + HASH_LO) != 0) {
+                    entries++;
+                }
+            }
+            size.set(entries);
+            LOG.info("Loaded {} entries of idempotent repository {}", entries, path);
+        } else {
+            if (existing > 0) {
+                LOG.warn("Reinitializing idempotent repository {} as it does not match maxEntries {}", path,
+                        maxEntries);
+                for (int offset = 0; offset < bytes; offset += Long.BYTES) {
+                    answer.putLong(offset, 0);
+                }
+            }
+            answer.putLong(0, MAGIC);
+            answer.putInt(8, VERSION);
+            answer.putInt(12, sets);
+            answer.putInt(16, WAYS);
+            answer.force();
+            size.set(0);
+        }
+        return answer;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        ByteBuffer current = table;
+        // the buffer is released once it is garbage collected
+        table = null;
+        if (current instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) current).force();
+        }
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            LOG.debug("Cannot release lock of idempotent repository {} due {}", file, e.getMessage());
+        }
+        fileLock = null;
+        IOHelper.close(channel);
+        channel = null;
+    }
+
+    /**
+     * Writes the changes of a repository mapped from a file to disk, which the operating system otherwise does in
+     * its own time.
+     */
+    @ManagedOperation(description = "Writes the entries to the file")
+    public void force() {
+        ByteBuffer current = table;
+        if (current instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) current).force();
+        }
+    }
+
+    @ManagedAttribute(description = "The current number of entries")
+    public int getCacheSize() {
+        return size.get();
+    }
+
+    @ManagedAttribute(description = "The number of entries evicted to make room for new ones")
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @ManagedAttribute(description = "The maximum number of entries")
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the number of keys the table holds, rounded up to a power of two. Each key takes 32 bytes.
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    @ManagedAttribute(description = "Time in millis after which entries expire")
+    public long getExpireAfter() {
+        return expireAfter;
+    }
+
+    /**
+     * Sets the time in millis after which a key is forgotten, counted from when it was added. 0 keeps keys until they
+     * are evicted or removed.
+     */
+    public void setExpireAfter(long expireAfter) {
+        this.expireAfter = expireAfter;
+    }
+
+    @ManagedAttribute(description = "The file the entries are persisted in")
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the file the table is mapped from, so the keys survive restarts. Without one the keys are kept in a
+     * direct buffer and lost when the repository is stopped.
+     */
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapIdempotentRepository[" + (file != null ? file : "memory") + ", maxEntries=" + maxEntries + "]";
+    }
+}
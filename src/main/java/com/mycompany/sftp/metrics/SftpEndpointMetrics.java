@@ -0,0 +1,321 @@
+package com.mycompany.sftp.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedResource;
+import org.apache.camel.spi.ManagementAgent;
+import org.apache.camel.spi.ManagementStrategy;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mycompany.sftp.pool.SftpCircuitBreaker;
+import com.mycompany.sftp.pool.SftpConnection;
+import com.mycompany.sftp.pool.SftpConnectionFactory;
+import com.mycompany.sftp.pool.SftpConnectionPool;
+
+/**
+ * Instrumentation of a pooled SFTP endpoint: how long borrowers wait for a connection, and the latency, bytes and
+ * failures of the store, retrieve and list operations. The state of the connection pool is read live from the pool
+ * the endpoint currently uses, so it reports nothing while the endpoint is stopped.
+ * <p>
+ * The metrics are exposed over JMX as a Camel managed resource when JMX is enabled, can be bound to a Micrometer
+ * registry with {@link SftpMetricsBinder}, and back the endpoint's {@link SftpPoolHealthCheck}.
+ */
+@ManagedResource(description = "Pooled SFTP endpoint metrics")
+public class SftpEndpointMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SftpEndpointMetrics.class);
+
+    public static final String JMX_DOMAIN = "com.mycompany.sftp";
+
+    /**
+     * The instrumented operations.
+     */
+    public enum Operation {
+        STORE, RETRIEVE, LIST
+    }
+
+    private final String endpointUri;
+    private final Supplier<SftpConnectionPool> pool;
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+    private ObjectName objectName;
+    private ManagementAgent managementAgent;
+
+    /**
+     * @param endpointUri the endpoint uri, without secrets
+     * @param pool        the pool the endpoint currently uses, <tt>null</tt> while it has none
+     */
+    public SftpEndpointMetrics(String endpointUri, Supplier<SftpConnectionPool> pool) {
+        this.endpointUri = endpointUri;
+        this.pool = pool;
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationMetrics());
+        }
+    }
+
+    public void recordBorrow(long waitNanos) {
+        borrowWait.record(waitNanos);
+    }
+
+    /**
+     * Records a completed operation.
+     *
+     * @param bytes the bytes transferred, 0 if not known
+     */
+    public void recordOperation(Operation operation, long nanos, long bytes, boolean success) {
+        OperationMetrics metrics = operations.get(operation);
+        metrics.latency.record(nanos);
+        if (bytes > 0) {
+            metrics.bytes.add(bytes);
+        }
+        if (!success) {
+            metrics.failures.increment();
+        }
+    }
+
+    public LatencyHistogram getBorrowWait() {
+        return borrowWait;
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return operations.get(operation).latency;
+    }
+
+    public long getBytes(Operation operation) {
+        return operations.get(operation).bytes.sum();
+    }
+
+    public long getFailureCount(Operation operation) {
+        return operations.get(operation).failures.sum();
+    }
+
+    /**
+     * The pool the endpoint currently uses, or <tt>null</tt>.
+     */
+    public SftpConnectionPool getPool() {
+        return pool.get();
+    }
+
+    /**
+     * The circuit breaker guarding the connects of the pool, or <tt>null</tt>.
+     */
+    public SftpCircuitBreaker getCircuitBreaker() {
+        SftpConnectionFactory factory = getFactory();
+        return factory != null ? factory.getCircuitBreaker() : null;
+    }
+
+    private SftpConnectionFactory getFactory() {
+        SftpConnectionPool p = pool.get();
+        if (p == null) {
+            return null;
+        }
+        PooledObjectFactory<SftpConnection> factory = p.getFactory();
+        return factory instanceof SftpConnectionFactory ? (SftpConnectionFactory) factory : null;
+    }
+
+    private long fromPool(ToLongFunction<SftpConnectionPool> attribute) {
+        SftpConnectionPool p = pool.get();
+        return p != null ? attribute.applyAsLong(p) : 0;
+    }
+
+    @ManagedAttribute(description = "The endpoint uri")
+    public String getEndpointUri() {
+        return endpointUri;
+    }
+
+    @ManagedAttribute(description = "The number of connections borrowed from the pool")
+    public int getPoolActive() {
+        return (int) fromPool(SftpConnectionPool::getNumActive);
+    }
+
+    @ManagedAttribute(description = "The number of idle connections in the pool")
+    public int getPoolIdle() {
+        return (int) fromPool(SftpConnectionPool::getNumIdle);
+    }
+
+    @ManagedAttribute(description = "The number of borrowers waiting for a connection")
+    public int getPoolWaiters() {
+        return (int) fromPool(SftpConnectionPool::getNumWaiters);
+    }
+
+    @ManagedAttribute(description = "The maximum number of connections of the pool")
+    public int getPoolMaxTotal() {
+        return (int) fromPool(SftpConnectionPool::getMaxTotal);
+    }
+
+    @ManagedAttribute(description = "The number of connections the pool created")
+    public long getPoolCreatedCount() {
+        return fromPool(SftpConnectionPool::getCreatedCount);
+    }
+
+    @ManagedAttribute(description = "The number of connections the pool destroyed")
+    public long getPoolDestroyedCount() {
+        return fromPool(SftpConnectionPool::getDestroyedCount);
+    }
+
+    @ManagedAttribute(description = "The number of connections invalidated as broken")
+    public long getPoolInvalidatedCount() {
+        return fromPool(SftpConnectionPool::getInvalidatedCount);
+    }
+
+    @ManagedAttribute(description = "The number of connections that failed validation")
+    public long getPoolValidationFailureCount() {
+        SftpConnectionFactory factory = getFactory();
+        return factory != null ? factory.getValidationFailureCount() : 0;
+    }
+
+    @ManagedAttribute(description = "The state of the circuit guarding the connects")
+    public String getCircuitState() {
+        SftpCircuitBreaker breaker = getCircuitBreaker();
+        return breaker != null ? breaker.getState().name() : null;
+    }
+
+    @ManagedAttribute(description = "The number of borrowed connections")
+    public long getBorrowCount() {
+        return borrowWait.getCount();
+    }
+
+    @ManagedAttribute(description = "The mean time in millis waited for a connection")
+    public double getBorrowWaitMeanMillis() {
+        return borrowWait.getMeanMillis();
+    }
+
+    @ManagedAttribute(description = "The 99th percentile of the time in millis waited for a connection")
+    public double getBorrowWaitP99Millis() {
+        return borrowWait.getPercentileMillis(99);
+    }
+
+    @ManagedAttribute(description = "The longest time in millis waited for a connection")
+    public double getBorrowWaitMaxMillis() {
+        return borrowWait.getMaxMillis();
+    }
+
+    @ManagedAttribute(description = "The number of stored files")
+    public long getStoreCount() {
+        return getLatency(Operation.STORE).getCount();
+    }
+
+    @ManagedAttribute(description = "The number of failed stores")
+    public long getStoreFailureCount() {
+        return getFailureCount(Operation.STORE);
+    }
+
+    @ManagedAttribute(description = "The bytes stored")
+    public long getStoreBytes() {
+        return getBytes(Operation.STORE);
+    }
+
+    @ManagedAttribute(description = "The mean time in millis of a store")
+    public double getStoreMeanMillis() {
+        return getLatency(Operation.STORE).getMeanMillis();
+    }
+
+    @ManagedAttribute(description = "The 99th percentile of the time in millis of a store")
+    public double getStoreP99Millis() {
+        return getLatency(Operation.STORE).getPercentileMillis(99);
+    }
+
+    @ManagedAttribute(description = "The number of retrieved files")
+    public long getRetrieveCount() {
+        return getLatency(Operation.RETRIEVE).getCount();
+    }
+
+    @ManagedAttribute(description = "The number of failed retrieves")
+    public long getRetrieveFailureCount() {
+        return getFailureCount(Operation.RETRIEVE);
+    }
+
+    @ManagedAttribute(description = "The bytes retrieved")
+    public long getRetrieveBytes() {
+        return getBytes(Operation.RETRIEVE);
+    }
+
+    @ManagedAttribute(description = "The mean time in millis of a retrieve")
+    public double getRetrieveMeanMillis() {
+        return getLatency(Operation.RETRIEVE).getMeanMillis();
+    }
+
+    @ManagedAttribute(description = "The 99th percentile of the time in millis of a retrieve")
+    public double getRetrieveP99Millis() {
+        return getLatency(Operation.RETRIEVE).getPercentileMillis(99);
+    }
+
+    @ManagedAttribute(description = "The number of directory listings")
+    public long getListCount() {
+        return getLatency(Operation.LIST).getCount();
+    }
+
+    @ManagedAttribute(description = "The number of failed directory listings")
+    public long getListFailureCount() {
+        return getFailureCount(Operation.LIST);
+    }
+
+    @ManagedAttribute(description = "The mean time in millis of a directory listing")
+    public double getListMeanMillis() {
+        return getLatency(Operation.LIST).getMeanMillis();
+    }
+
+    @ManagedAttribute(description = "The 99th percentile of the time in millis of a directory listing")
+    public double getListP99Millis() {
+        return getLatency(Operation.LIST).getPercentileMillis(99);
+    }
+
+    /**
+     * Registers the metrics with the management strategy of Camel as
+     * <tt>com.mycompany.sftp:type=PooledSftpEndpoint,name="&lt;uri&gt;"</tt>. Nothing is registered while JMX is
+     * disabled.
+     */
+    public synchronized void registerMBean(ManagementStrategy strategy) {
+        ManagementAgent agent = strategy.getManagementAgent();
+        if (objectName != null || agent == null) {
+            return;
+        }
+        try {
+            ObjectName name = getObjectName();
+            agent.register(this, name);
+            objectName = name;
+            managementAgent = agent;
+        } catch (JMException e) {
+            LOG.warn("Cannot register metrics MBean of {} due {}", endpointUri, e.getMessage(), e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            managementAgent.unregister(objectName);
+        } catch (JMException e) {
+            LOG.debug("Cannot unregister metrics MBean {} due {}", objectName, e.getMessage());
+        }
+        objectName = null;
+        managementAgent = null;
+    }
+
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName(JMX_DOMAIN + ":type=PooledSftpEndpoint,name=" + ObjectName.quote(endpointUri));
+    }
+
+    @Override
+    public String toString() {
+        return "SftpEndpointMetrics[" + endpointUri + "]";
+    }
+
+    private static final class OperationMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+    }
+}
@@ -0,0 +1,76 @@
+package com.mycompany.sftp.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Binds the {@link SftpEndpointMetrics} of an endpoint to a Micrometer registry, tagged with the endpoint uri.
+ * <p>
+ * Micrometer is an optional dependency, only needed on the classpath when this binder is used:
+ *
+ * <pre>
+ * new SftpMetricsBinder(endpoint.getMetrics()).bindTo(registry);
+ * </pre>
+ */
+public class SftpMetricsBinder implements MeterBinder {
+
+    private final SftpEndpointMetrics metrics;
+    private final Tags tags;
+
+    public SftpMetricsBinder(SftpEndpointMetrics metrics) {
+        this(metrics, Tags.empty());
+    }
+
+    public SftpMetricsBinder(SftpEndpointMetrics metrics, Iterable<Tag> tags) {
+        this.metrics = metrics;
+        this.tags = Tags.concat(tags, "endpoint", metrics.getEndpointUri());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("sftp.pool.active", metrics, SftpEndpointMetrics::getPoolActive).tags(tags)
+                .description("Connections borrowed from the pool").register(registry);
+        Gauge.builder("sftp.pool.idle", metrics, SftpEndpointMetrics::getPoolIdle).tags(tags)
+                .description("Idle connections in the pool").register(registry);
+        Gauge.builder("sftp.pool.waiters", metrics, SftpEndpointMetrics::getPoolWaiters).tags(tags)
+                .description("Borrowers waiting for a connection").register(registry);
+        Gauge.builder("sftp.pool.max", metrics, SftpEndpointMetrics::getPoolMaxTotal).tags(tags)
+                .description("Maximum number of connections of the pool").register(registry);
+
+        FunctionCounter.builder("sftp.pool.connections.created", metrics, SftpEndpointMetrics::getPoolCreatedCount)
+                .tags(tags).register(registry);
+        FunctionCounter.builder("sftp.pool.connections.destroyed", metrics, SftpEndpointMetrics::getPoolDestroyedCount)
+                .tags(tags).register(registry);
+        FunctionCounter.builder("sftp.pool.connections.invalidated", metrics,
+                SftpEndpointMetrics::getPoolInvalidatedCount).tags(tags).register(registry);
+        FunctionCounter.builder("sftp.pool.validation.failures", metrics,
+                SftpEndpointMetrics::getPoolValidationFailureCount).tags(tags).register(registry);
+
+        bindLatency(registry, "sftp.pool.borrow.wait", metrics.getBorrowWait(), tags);
+        for (SftpEndpointMetrics.Operation operation : SftpEndpointMetrics.Operation.values()) {
+            Tags operationTags = tags.and("operation", operation.name().toLowerCase());
+            bindLatency(registry, "sftp.operation", metrics.getLatency(operation), operationTags);
+            FunctionCounter.builder("sftp.operation.bytes", metrics, m -> m.getBytes(operation))
+                    .tags(operationTags).baseUnit("bytes").register(registry);
+            FunctionCounter.builder("sftp.operation.failures", metrics, m -> m.getFailureCount(operation))
+                    .tags(operationTags).register(registry);
+        }
+    }
+
+    private static void bindLatency(MeterRegistry registry, String name, LatencyHistogram histogram, Tags tags) {
+        FunctionTimer.builder(name, histogram, LatencyHistogram::getCount, LatencyHistogram::getTotalNanos,
+                TimeUnit.NANOSECONDS).tags(tags).register(registry);
+        TimeGauge.builder(name + ".p99", histogram, TimeUnit.NANOSECONDS, h -> h.getValueAtPercentile(99))
+                .tags(tags).register(registry);
+        TimeGauge.builder(name + ".max", histogram, TimeUnit.NANOSECONDS, LatencyHistogram::getMaxNanos)
+                .tags(tags).register(registry);
+    }
+}
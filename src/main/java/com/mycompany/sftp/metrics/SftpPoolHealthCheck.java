@@ -0,0 +1,54 @@
+package com.mycompany.sftp.metrics;
+
+import java.util.Map;
+
+import org.apache.camel.health.HealthCheckResultBuilder;
+import org.apache.camel.impl.health.AbstractHealthCheck;
+
+import com.mycompany.sftp.pool.SftpCircuitBreaker;
+import com.mycompany.sftp.pool.SftpConnectionPool;
+
+/**
+ * Reports the connection pool of a pooled SFTP endpoint as down while it is closed or its circuit breaker is open,
+ * with the pool state and borrow wait as details.
+ */
+public class SftpPoolHealthCheck extends AbstractHealthCheck {
+
+    public static final String GROUP = "pooled-sftp";
+
+    private final SftpEndpointMetrics metrics;
+
+    public SftpPoolHealthCheck(String id, SftpEndpointMetrics metrics) {
+        super(GROUP, id);
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doCall(HealthCheckResultBuilder builder, Map<String, Object> options) {
+        builder.detail("endpoint.uri", metrics.getEndpointUri());
+        SftpConnectionPool pool = metrics.getPool();
+        if (pool == null || pool.isClosed()) {
+            builder.message("Connection pool is not open");
+            builder.down();
+            return;
+        }
+
+        builder.detail("pool.active", pool.getNumActive());
+        builder.detail("pool.idle", pool.getNumIdle());
+        builder.detail("pool.waiters", pool.getNumWaiters());
+        builder.detail("pool.maxTotal", pool.getMaxTotal());
+        builder.detail("borrow.wait.p99.ms", metrics.getBorrowWaitP99Millis());
+
+        SftpCircuitBreaker breaker = metrics.getCircuitBreaker();
+        if (breaker != null) {
+            builder.detail("circuit.state", breaker.getState().name());
+            if (breaker.getState() == SftpCircuitBreaker.State.OPEN) {
+                builder.message("Circuit is open after " + breaker.getConsecutiveFailures()
+                                + " failed connection attempts");
+                builder.down();
+                return;
+            }
+        }
+        builder.up();
+    }
+}
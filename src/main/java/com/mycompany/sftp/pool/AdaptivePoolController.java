@@ -0,0 +1,282 @@
+package com.mycompany.sftp.pool;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.camel.spi.ExecutorServiceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adapts maxTotal of a {@link SftpConnectionPool} to the observed load, within configured bounds.
+ * <p>
+ * Every interval the controller looks at what happened since the previous interval and makes one decision:
+ * <ul>
+ * <li>connections could not be opened: the server refuses sessions, so the size is halved (multiplicative decrease)
+ * and not grown again for a few intervals</li>
+ * <li>borrowers waited longer than the target borrow wait: the size grows by one (additive increase), unless the
+ * operations have become much slower than when the pool was not saturated, as more sessions would then only slow
+ * down the server further</li>
+ * <li>fewer connections were in use than the size allows: the size shrinks by one, so unused sessions are released</li>
+ * </ul>
+ * maxIdle follows maxTotal, so connections above a reduced size are closed when they are returned.
+ */
+public class AdaptivePoolController implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptivePoolController.class);
+
+    /**
+     * Operations slower than this factor of the unsaturated latency are taken as a sign of an overloaded server.
+     */
+    private static final double LATENCY_DEGRADATION_FACTOR = 2.0;
+    private static final int BACKOFF_COOLDOWN_INTERVALS = 3;
+
+    /**
+     * A decision made by the controller.
+     */
+    public enum Decision {
+        HOLD, INCREASE, DECREASE, BACKOFF
+    }
+
+    private final SftpConnectionPool pool;
+    private final int minTotal;
+    private final int maxTotal;
+    private final long targetBorrowWaitNanos;
+    private final int configuredMaxIdle;
+
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder operationNanos = new LongAdder();
+    private final LongAdder operations = new LongAdder();
+    private final AtomicInteger peakActive = new AtomicInteger();
+
+    private final AtomicLong increases = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+    private final AtomicLong backoffs = new AtomicLong();
+    private volatile Decision lastDecision = Decision.HOLD;
+    private volatile long lastBorrowWaitNanos;
+    private volatile long lastOperationNanos;
+    private volatile long baselineOperationNanos;
+    private long lastConnectFailures;
+    private int cooldown;
+
+    private ExecutorServiceManager executorServiceManager;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> task;
+
+    public AdaptivePoolController(SftpConnectionPool pool, int minTotal, int maxTotal, long targetBorrowWaitMillis) {
+        if (minTotal < 1 || maxTotal < minTotal) {
+            throw new IllegalArgumentException(
+                    "Adaptive pool bounds must satisfy 1 <= minTotal <= maxTotal, was " + minTotal + " and " + maxTotal);
+        }
+        this.pool = pool;
+        this.minTotal = minTotal;
+        this.maxTotal = maxTotal;
+        this.targetBorrowWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetBorrowWaitMillis);
+        this.configuredMaxIdle = pool.getMaxIdle();
+        this.lastConnectFailures = getConnectFailureCount();
+    }
+
+    /**
+     * Runs the controller every interval on a scheduler of the executor service manager, which is shut down by the
+     * manager when the controller is stopped.
+     */
+    public synchronized void start(ExecutorServiceManager executorServiceManager, Object source, long intervalMillis) {
+        this.executorServiceManager = executorServiceManager;
+        this.scheduler = executorServiceManager.newSingleThreadScheduledExecutor(source, "PooledSftpAdaptivePool");
+        this.task = scheduler.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        if (scheduler != null) {
+            executorServiceManager.shutdownNow(scheduler);
+            scheduler = null;
+        }
+    }
+
+    void recordBorrow(long waitNanos, int active) {
+        borrowWaitNanos.add(waitNanos);
+        borrows.increment();
+        peakActive.accumulateAndGet(active, Math::max);
+    }
+
+    void recordOperation(long nanos) {
+        operationNanos.add(nanos);
+        operations.increment();
+    }
+
+    /**
+     * Makes the decision for the interval that just ended and applies it to the pool.
+     */
+    @Override
+    public synchronized void run() {
+        try {
+            adapt();
+        } catch (RuntimeException e) {
+            LOG.warn("Cannot adapt size of SFTP connection pool due {}", e.getMessage(), e);
+        }
+    }
+
+    private void adapt() {
+        long connectFailures = getConnectFailureCount();
+        long newFailures = connectFailures - lastConnectFailures;
+        lastConnectFailures = connectFailures;
+
+        long borrowCount = borrows.sumThenReset();
+        long waitNanos = borrowWaitNanos.sumThenReset();
+        long operationCount = operations.sumThenReset();
+        long latencyNanos = operationNanos.sumThenReset();
+        int peak = Math.max(peakActive.getAndSet(0), pool.getNumActive());
+        int waiters = pool.getNumWaiters();
+
+        long meanWait = borrowCount > 0 ? waitNanos / borrowCount : 0;
+        long meanLatency = operationCount > 0 ? latencyNanos / operationCount : 0;
+        lastBorrowWaitNanos = meanWait;
+        lastOperationNanos = meanLatency;
+
+        int current = pool.getMaxTotal();
+        boolean saturated = waiters > 0 || meanWait > targetBorrowWaitNanos;
+        if (!saturated && meanLatency > 0) {
+            long baseline = baselineOperationNanos;
+            baselineOperationNanos = baseline == 0 ? meanLatency : (baseline * 4 + meanLatency) / 5;
+        }
+        if (cooldown > 0) {
+            cooldown--;
+        }
+
+        Decision decision;
+        int size = current;
+        if (newFailures > 0) {
+            decision = Decision.BACKOFF;
+            size = Math.max(minTotal, current / 2);
+            cooldown = BACKOFF_COOLDOWN_INTERVALS;
+        } else if (saturated) {
+            if (current < maxTotal && cooldown == 0 && !isLatencyDegraded(meanLatency)) {
+                decision = Decision.INCREASE;
+                size = current + 1;
+            } else {
+                decision = Decision.HOLD;
+            }
+        } else if (peak < current - 1 && current > minTotal) {
+            decision = Decision.DECREASE;
+            size = current - 1;
+        } else {
+            decision = Decision.HOLD;
+        }
+
+        lastDecision = decision;
+        if (size != current) {
+            resize(size);
+            switch (decision) {
+                case INCREASE:
+                    increases.incrementAndGet();
+                    if (waiters > 0) {
+                        addConnection();
+                    }
+                    break;
+                case BACKOFF:
+                    backoffs.incrementAndGet();
+                    break;
+                default:
+                    decreases.incrementAndGet();
+                    break;
+            }
+        }
+        LOG.debug("Adaptive pool decision {} ({} -> {}): failures={}, waiters={}, peakActive={}, meanBorrowWait={} ms, "
+                  + "meanOperation={} ms", decision, current, size, newFailures, waiters, peak, meanWait / 1_000_000,
+                meanLatency / 1_000_000);
+    }
+
+    /**
+     * Borrowers already waiting are not woken up by a larger maxTotal, so hand them a new connection.
+     */
+    private void addConnection() {
+        try {
+            pool.addObject();
+        } catch (Exception e) {
+            // counted as a connect failure, so the next decision backs off
+            LOG.debug("Cannot open connection for waiting borrowers due {}", e.getMessage());
+        }
+    }
+
+    private boolean isLatencyDegraded(long meanLatency) {
+        long baseline = baselineOperationNanos;
+        return baseline > 0 && meanLatency > baseline * LATENCY_DEGRADATION_FACTOR;
+    }
+
+    private void resize(int size) {
+        pool.setMaxIdle(configuredMaxIdle < 0 ? size : Math.min(configuredMaxIdle, size));
+        pool.setMaxTotal(size);
+    }
+
+    private long getConnectFailureCount() {
+        return pool.getFactory() instanceof SftpConnectionFactory
+                ? ((SftpConnectionFactory) pool.getFactory()).getConnectFailureCount() : 0;
+    }
+
+    public int getMinTotal() {
+        return minTotal;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * The current maxTotal of the pool, as last decided by the controller.
+     */
+    public int getCurrentMaxTotal() {
+        return pool.getMaxTotal();
+    }
+
+    public Decision getLastDecision() {
+        return lastDecision;
+    }
+
+    public long getIncreaseCount() {
+        return increases.get();
+    }
+
+    public long getDecreaseCount() {
+        return decreases.get();
+    }
+
+    public long getBackoffCount() {
+        return backoffs.get();
+    }
+
+    /**
+     * The mean borrow wait in millis during the last interval.
+     */
+    public double getLastBorrowWaitMillis() {
+        return lastBorrowWaitNanos / 1_000_000.0;
+    }
+
+    /**
+     * The mean time in millis a connection was borrowed for during the last interval.
+     */
+    public double getLastOperationMillis() {
+        return lastOperationNanos / 1_000_000.0;
+    }
+
+    /**
+     * The mean time in millis a connection is borrowed for while the pool is not saturated.
+     */
+    public double getBaselineOperationMillis() {
+        return baselineOperationNanos / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptivePoolController[" + minTotal + ".." + maxTotal + ", current=" + getCurrentMaxTotal()
+               + ", last=" + lastDecision + "]";
+    }
+}
@@ -0,0 +1,105 @@
+package com.mycompany.sftp.pool;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers remote directories known to exist, so they are not checked or created again on every upload.
+ * <p>
+ * Entries expire after a time to live and the least recently used entries are evicted once the cache is full. As the
+ * cache belongs to a connection pool, relative directories always resolve against the same home directory.
+ */
+public final class RemoteDirectoryCache {
+
+    private final long ttlNanos;
+    private final Map<String, Long> directories;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RemoteDirectoryCache(long ttlMillis, int maxSize) {
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.directories = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Whether the directory is known to exist.
+     */
+    public boolean contains(String directory) {
+        String key = normalize(directory);
+        synchronized (directories) {
+            Long expires = directories.get(key);
+            if (expires != null && expires - System.nanoTime() > 0) {
+                hits.incrementAndGet();
+                return true;
+            }
+            if (expires != null) {
+                directories.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records that the directory exists.
+     */
+    public void add(String directory) {
+        String key = normalize(directory);
+        synchronized (directories) {
+            directories.put(key, System.nanoTime() + ttlNanos);
+        }
+    }
+
+    /**
+     * Forgets the directory and the directories below it, for example after an upload into it failed because it no
+     * longer exists.
+     */
+    public void invalidate(String directory) {
+        String key = normalize(directory);
+        String prefix = key + "/";
+        synchronized (directories) {
+            Iterator<String> it = directories.keySet().iterator();
+            while (it.hasNext()) {
+                String candidate = it.next();
+                if (candidate.equals(key) || candidate.startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (directories) {
+            directories.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (directories) {
+            return directories.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static String normalize(String directory) {
+        String answer = directory.replace('\\', '/');
+        while (answer.length() > 1 && answer.endsWith("/")) {
+            answer = answer.substring(0, answer.length() - 1);
+        }
+        return answer;
+    }
+}
@@ -0,0 +1,299 @@
+package com.mycompany.sftp.pool;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the connections of a {@link SftpConnectionPool} into named partitions (bulkheads), so one kind of traffic
+ * cannot starve another.
+ * <p>
+ * Each partition has a number of connections reserved for it, which other partitions cannot take even while they
+ * are unused, and a maximum number of connections it may hold. A borrower that is not admitted waits, and freed
+ * capacity is granted to the waiters of the highest priority first, in arrival order within a priority. Borrowers of
+ * endpoints without a bulkhead use the default partition, which reserves nothing and has no maximum of its own.
+ * <p>
+ * As long as only the default partition exists, borrowers are admitted without any bookkeeping.
+ */
+public class SftpBulkheads {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SftpBulkheads.class);
+
+    public static final String DEFAULT_PARTITION = "default";
+
+    private final SftpConnectionPool pool;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Partition> partitions = new LinkedHashMap<>();
+    private final NavigableSet<Waiter> waiters = new TreeSet<>();
+    private final Partition defaultPartition;
+    private volatile boolean partitioned;
+    private long sequence;
+    private int inUse;
+
+    SftpBulkheads(SftpConnectionPool pool) {
+        this.pool = pool;
+        this.defaultPartition = new Partition(DEFAULT_PARTITION, 0, 0, 0);
+        partitions.put(DEFAULT_PARTITION, defaultPartition);
+    }
+
+    /**
+     * Returns the partition with the given name, creating it on first use. The first endpoint that uses a partition
+     * defines its shares.
+     *
+     * @param reserved the number of connections only this partition may use
+     * @param max      the maximum number of connections this partition may hold, 0 for no maximum of its own
+     * @param priority partitions with a higher priority get freed capacity first
+     */
+    public Partition partition(String name, int reserved, int max, int priority) {
+        lock.lock();
+        try {
+            Partition partition = partitions.get(name);
+            if (partition == null) {
+                partition = new Partition(name, reserved, max, priority);
+                partitions.put(name, partition);
+                partitioned = true;
+                int totalReserved = partitions.values().stream().mapToInt(p -> p.reserved).sum();
+                if (pool.getMaxTotal() > 0 && totalReserved > pool.getMaxTotal()) {
+                    LOG.warn("Bulkheads of SFTP connection pool reserve {} connections, more than maxTotal {}",
+                            totalReserved, pool.getMaxTotal());
+                }
+            }
+            return partition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Partition getDefaultPartition() {
+        return defaultPartition;
+    }
+
+    public Collection<Partition> getPartitions() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(partitions.values()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admits a borrower of the partition, waiting at most the given duration (negative to wait forever).
+     *
+     * @return whether the borrower was accounted to the partition, and must be released
+     * @throws NoSuchElementException if the borrower was not admitted in time
+     */
+    boolean acquire(Partition partition, Duration maxWait) throws InterruptedException {
+        if (!partitioned) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if ((waiters.isEmpty() || partition.inUse < partition.reserved) && isAdmissible(partition)) {
+                admit(partition);
+                return true;
+            }
+
+            Waiter waiter = new Waiter(partition, sequence++, lock.newCondition());
+            waiters.add(waiter);
+            partition.waiting++;
+            try {
+                long remaining = maxWait.toNanos();
+                while (!waiter.granted) {
+                    if (maxWait.isNegative()) {
+                        waiter.condition.await();
+                    } else if (remaining > 0) {
+                        remaining = waiter.condition.awaitNanos(remaining);
+                    } else {
+                        partition.rejected.incrementAndGet();
+                        throw new NoSuchElementException("Timeout waiting for a connection of bulkhead "
+                                                         + partition.name + " after " + maxWait.toMillis() + " ms");
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // granted while being interrupted, pass the capacity on
+                    release(partition);
+                }
+                throw e;
+            } finally {
+                partition.waiting--;
+                if (!waiter.granted) {
+                    waiters.remove(waiter);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a borrower admitted by {@link #acquire(Partition, Duration)}, granting the freed capacity to waiters.
+     */
+    void release(Partition partition) {
+        lock.lock();
+        try {
+            partition.inUse--;
+            inUse--;
+            grant();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Grants capacity to the waiters in priority order. Once a waiter cannot get shared capacity, waiters behind it
+     * may only be granted their reserved connections, so lower priorities do not overtake it. A waiter held back by
+     * the maximum of its own partition does not hold back the others.
+     */
+    private void grant() {
+        boolean sharedCapacityClaimed = false;
+        Iterator<Waiter> it = waiters.iterator();
+        while (it.hasNext()) {
+            Waiter waiter = it.next();
+            Partition partition = waiter.partition;
+            boolean withinReservation = partition.inUse < partition.reserved;
+            if ((withinReservation || !sharedCapacityClaimed) && isAdmissible(partition)) {
+                it.remove();
+                admit(partition);
+                waiter.granted = true;
+                waiter.condition.signal();
+            } else if (!isAtMax(partition)) {
+                sharedCapacityClaimed = true;
+            }
+        }
+    }
+
+    private boolean isAtMax(Partition partition) {
+        return partition.max > 0 && partition.inUse >= partition.max;
+    }
+
+    private boolean isAdmissible(Partition partition) {
+        if (isAtMax(partition)) {
+            return false;
+        }
+        if (partition.inUse < partition.reserved) {
+            return true;
+        }
+        int maxTotal = pool.getMaxTotal();
+        if (maxTotal < 0) {
+            return true;
+        }
+        // the unused reservations of the other partitions are not available
+        int unusedReservations = 0;
+        for (Partition other : partitions.values()) {
+            if (other != partition) {
+                unusedReservations += Math.max(0, other.reserved - other.inUse);
+            }
+        }
+        return inUse + unusedReservations < maxTotal;
+    }
+
+    private void admit(Partition partition) {
+        partition.inUse++;
+        partition.acquired.incrementAndGet();
+        inUse++;
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        private final Partition partition;
+        private final long sequence;
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Partition partition, long sequence, Condition condition) {
+            this.partition = partition;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            int answer = Integer.compare(o.partition.priority, partition.priority);
+            return answer != 0 ? answer : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    /**
+     * A named share of the connections of the pool.
+     */
+    public static final class Partition {
+
+        private final String name;
+        private final int reserved;
+        private final int max;
+        private final int priority;
+        private volatile int inUse;
+        private volatile int waiting;
+        private final AtomicLong acquired = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        private Partition(String name, int reserved, int max, int priority) {
+            this.name = name;
+            this.reserved = Math.max(0, reserved);
+            this.max = Math.max(0, max);
+            this.priority = priority;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getReserved() {
+            return reserved;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * The number of connections held by borrowers of this partition.
+         */
+        public int getInUse() {
+            return inUse;
+        }
+
+        /**
+         * The number of borrowers of this partition waiting to be admitted.
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getAcquiredCount() {
+            return acquired.get();
+        }
+
+        /**
+         * The number of borrowers that were not admitted within the pool's maxWait.
+         */
+        public long getRejectedCount() {
+            return rejected.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Partition[" + name + ", reserved=" + reserved + ", max=" + max + ", priority=" + priority
+                   + ", inUse=" + inUse + ", waiting=" + waiting + "]";
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.mycompany.sftp.pool;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Guards the connection attempts of a {@link SftpConnectionFactory}, so a server that is down is not hammered by every
+ * borrower waiting for the connect timeout.
+ * <p>
+ * After a number of consecutive failed connects the circuit opens, and connection attempts fail right away with a
+ * {@link SftpCircuitOpenException}. Once the backoff has elapsed a single trial attempt is let through (half open):
+ * if it succeeds the circuit closes, otherwise it opens again with twice the backoff, up to the maximum backoff. The
+ * backoff is jittered, so the pools of several nodes do not retry in lockstep.
+ * <p>
+ * Independently, the number of connection attempts in flight can be capped. Attempts beyond the cap wait for a slot
+ * for at most the connect timeout, or until one is free when there is no connect timeout.
+ */
+public class SftpCircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SftpCircuitBreaker.class);
+
+    /**
+     * The state of the circuit.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Semaphore connectSlots;
+    private final int maxConcurrentConnects;
+    private final long slotTimeoutMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long backoffMillis;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    private final AtomicLong openCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param name                  describes the guarded server in messages
+     * @param failureThreshold      consecutive failed connects that open the circuit, 0 to never open it
+     * @param baseBackoffMillis     how long the circuit stays open the first time
+     * @param maxBackoffMillis      the longest the circuit stays open
+     * @param maxConcurrentConnects the maximum number of connection attempts in flight, 0 for no limit
+     * @param slotTimeoutMillis     how long an attempt waits for a slot when the limit is reached, 0 to wait until
+     *                              one is free
+     */
+    public SftpCircuitBreaker(String name, int failureThreshold, long baseBackoffMillis, long maxBackoffMillis,
+                              int maxConcurrentConnects, long slotTimeoutMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.baseBackoffMillis = Math.max(1, baseBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.baseBackoffMillis, maxBackoffMillis);
+        this.maxConcurrentConnects = maxConcurrentConnects;
+        this.connectSlots = maxConcurrentConnects > 0 ? new Semaphore(maxConcurrentConnects, true) : null;
+        this.slotTimeoutMillis = slotTimeoutMillis;
+        this.backoffMillis = this.baseBackoffMillis;
+    }
+
+    /**
+     * Asks permission for a connection attempt, which must be followed by {@link #onSuccess()} or
+     * {@link #onFailure()}, and {@link #release()}.
+     *
+     * @throws SftpCircuitOpenException if the circuit is open, or no slot became free in time
+     */
+    public void acquire() throws SftpCircuitOpenException {
+        checkState();
+        if (connectSlots == null) {
+            return;
+        }
+        boolean acquired;
+        try {
+            if (slotTimeoutMillis > 0) {
+                acquired = connectSlots.tryAcquire(slotTimeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                connectSlots.acquire();
+                acquired = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandonTrial();
+            throw new SftpCircuitOpenException("Interrupted while waiting to connect to " + name);
+        }
+        if (!acquired) {
+            abandonTrial();
+            rejectedCount.incrementAndGet();
+            throw new SftpCircuitOpenException("Cannot connect to " + name + " as " + maxConcurrentConnects
+                                               + " connection attempts are already in flight");
+        }
+        if (isOpen()) {
+            // opened by the attempts that were in flight while waiting for the slot
+            connectSlots.release();
+            rejectedCount.incrementAndGet();
+            throw new SftpCircuitOpenException("Circuit to " + name + " opened while waiting to connect");
+        }
+    }
+
+    private synchronized boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    /**
+     * Frees the slot of a connection attempt allowed by {@link #acquire()}.
+     */
+    public void release() {
+        if (connectSlots != null) {
+            connectSlots.release();
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOG.info("Closing circuit to {} as a connection succeeded", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        backoffMillis = baseBackoffMillis;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            backoffMillis = Math.min(maxBackoffMillis, backoffMillis * 2);
+            open();
+        } else if (state == State.CLOSED && failureThreshold > 0 && consecutiveFailures >= failureThreshold) {
+            backoffMillis = baseBackoffMillis;
+            open();
+        }
+    }
+
+    private synchronized void checkState() throws SftpCircuitOpenException {
+        if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+            LOG.debug("Half opening circuit to {} for a trial connection", name);
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return;
+        }
+        if (state != State.CLOSED) {
+            rejectedCount.incrementAndGet();
+            throw new SftpCircuitOpenException("Circuit to " + name + " is open after " + consecutiveFailures
+                                               + " failed connection attempts, retrying in "
+                                               + Math.max(0, getRemainingOpenMillis()) + " ms");
+        }
+    }
+
+    private synchronized void abandonTrial() {
+        if (state == State.HALF_OPEN) {
+            // let another attempt make the trial
+            trialInFlight = false;
+        }
+    }
+
+    private void open() {
+        long jittered = SftpUtils.jitter(backoffMillis);
+        openUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(jittered);
+        state = State.OPEN;
+        trialInFlight = false;
+        openCount.incrementAndGet();
+        LOG.warn("Opening circuit to {} for {} ms after {} failed connection attempts", name, jittered,
+                consecutiveFailures);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * The time in millis until a trial connection is let through, if the circuit is open.
+     */
+    public synchronized long getRemainingOpenMillis() {
+        return state == State.OPEN ? TimeUnit.NANOSECONDS.toMillis(openUntil - System.nanoTime()) : 0;
+    }
+
+    /**
+     * How often the circuit has been opened.
+     */
+    public long getOpenCount() {
+        return openCount.get();
+    }
+
+    /**
+     * How many connection attempts failed right away as the circuit was open or no slot was free.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * The number of connection attempts in flight.
+     */
+    public int getConnectsInFlight() {
+        return connectSlots != null ? maxConcurrentConnects - connectSlots.availablePermits() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SftpCircuitBreaker[" + name + ", " + getState() + "]";
+    }
+}
@@ -0,0 +1,16 @@
+package com.mycompany.sftp.pool;
+
+import com.jcraft.jsch.JSchException;
+
+/**
+ * Thrown instead of connecting when the {@link SftpCircuitBreaker} of a pool does not let a connection attempt
+ * through.
+ */
+public class SftpCircuitOpenException extends JSchException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SftpCircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -2,24 +2,42 @@ package com.mycompany.sftp.pool;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.function.Function;
 
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.Session;
+import org.apache.camel.component.file.remote.SftpOperations;
 
 /**
  * Represents a pooled SFTP connection which holds the reference to the JSCH session and channel.
+ * <p>
+ * The session may be shared with other connections, see {@link SftpSession}.
  */
 public class SftpConnection implements Closeable {
 
-    private final Session session;
+    private final SftpSession session;
     private final ChannelSftp channel;
+    private SftpOperations operations;
+    private volatile long lastVerified = System.nanoTime();
+    private volatile long borrowed;
+    private volatile SftpBulkheads.Partition partition;
+    private SftpHostSelector.Node node;
 
     public SftpConnection(Session session, ChannelSftp channel) {
+        this(new SftpSession(session, 1), channel);
+        this.session.tryReserveChannel();
+    }
+
+    public SftpConnection(SftpSession session, ChannelSftp channel) {
         this.session = session;
         this.channel = channel;
     }
 
     public Session getSession() {
+        return session.getSession();
+    }
+
+    public SftpSession getSftpSession() {
         return session;
     }
 
@@ -27,8 +45,70 @@ public class SftpConnection implements Closeable {
         return channel;
     }
 
+    /**
+     * Returns the operations bound to this connection's session and channel, creating them on first use.
+     * <p>
+     * A connection is only used by one borrower at a time, so no synchronization is needed.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends SftpOperations> T getOperations(Function<SftpConnection, T> factory) {
+        if (operations == null) {
+            operations = factory.apply(this);
+        }
+        return (T) operations;
+    }
+
+    /**
+     * Records that the connection was just seen working, by a successful operation or validation.
+     */
+    public void markVerified() {
+        lastVerified = System.nanoTime();
+    }
+
+    /**
+     * The time in millis since the connection was last seen working.
+     */
+    public long getMillisSinceVerified() {
+        return (System.nanoTime() - lastVerified) / 1_000_000;
+    }
+
+    void markBorrowed(long now) {
+        borrowed = now;
+    }
+
+    /**
+     * The time in nanos since the connection was borrowed from the pool.
+     */
+    long getNanosSinceBorrowed(long now) {
+        return now - borrowed;
+    }
+
+    void setPartition(SftpBulkheads.Partition partition) {
+        this.partition = partition;
+    }
+
+    /**
+     * Clears and returns the bulkhead partition the connection was borrowed for, if it was accounted to one.
+     */
+    SftpBulkheads.Partition takePartition() {
+        SftpBulkheads.Partition answer = partition;
+        partition = null;
+        return answer;
+    }
+
+    void setNode(SftpHostSelector.Node node) {
+        this.node = node;
+    }
+
+    /**
+     * The node of the host list the connection was opened to, or <tt>null</tt> if the pool connects to a single host.
+     */
+    public SftpHostSelector.Node getNode() {
+        return node;
+    }
+
     public boolean isConnected() {
-        return session != null && session.isConnected() && channel != null && channel.isConnected();
+        return session.isUsable() && channel != null && channel.isConnected();
     }
 
     @Override
@@ -36,8 +116,6 @@ public class SftpConnection implements Closeable {
         if (channel != null && channel.isConnected()) {
             channel.disconnect();
         }
-        if (session != null && session.isConnected()) {
-            session.disconnect();
-        }
+        session.releaseChannel();
     }
 }
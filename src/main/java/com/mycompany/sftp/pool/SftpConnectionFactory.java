@@ -1,6 +1,12 @@
 package com.mycompany.sftp.pool;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
@@ -21,6 +27,15 @@ public class SftpConnectionFactory implements PooledObjectFactory<SftpConnection
     private static final Logger LOG = LoggerFactory.getLogger(SftpConnectionFactory.class);
     private final SftpEndpoint endpoint;
     private final SftpConfiguration configuration;
+    private final List<SftpSession> sessions = new ArrayList<>();
+    private int channelsPerSession = 1;
+    private volatile SftpSessionTemplate sessionTemplate;
+    private SftpValidationStrategy validationStrategy = SftpValidationStrategy.CONNECTED;
+    private long validationInterval = 30000;
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private volatile SftpCircuitBreaker circuitBreaker;
+    private volatile SftpHostSelector hostSelector;
 
     public SftpConnectionFactory(SftpEndpoint endpoint) {
         this.endpoint = endpoint;
@@ -29,10 +44,149 @@ public class SftpConnectionFactory implements PooledObjectFactory<SftpConnection
 
     @Override
     public PooledObject<SftpConnection> makeObject() throws Exception {
-        LOG.trace("Creating new SFTP connection to {}:{}", configuration.getHost(), configuration.getPort());
-        
-        Session session = SftpUtils.createSession(endpoint, configuration, endpoint.getProxy());
-        
+        SftpCircuitBreaker breaker = circuitBreaker;
+        if (breaker == null) {
+            try {
+                return new DefaultPooledObject<>(connect());
+            } catch (Exception e) {
+                connectFailures.incrementAndGet();
+                throw e;
+            }
+        }
+
+        // fails fast while the server is known to be down
+        breaker.acquire();
+        try {
+            SftpConnection connection = connect();
+            breaker.onSuccess();
+            return new DefaultPooledObject<>(connection);
+        } catch (Exception e) {
+            connectFailures.incrementAndGet();
+            breaker.onFailure();
+            throw e;
+        } finally {
+            breaker.release();
+        }
+    }
+
+    private SftpConnection connect() throws Exception {
+        SftpHostSelector selector = hostSelector;
+        if (selector == null) {
+            return connect(configuration.getHost(), configuration.getPort());
+        }
+
+        // a failed node is not the end of the borrow, as long as another node accepts the connection
+        Set<SftpHostSelector.Node> tried = new HashSet<>();
+        Exception failure = null;
+        SftpHostSelector.Node node;
+        while ((node = selector.select(tried)) != null) {
+            tried.add(node);
+            try {
+                SftpConnection connection = connect(node.getHost(), node.getPort());
+                selector.onConnected(node);
+                connection.setNode(node);
+                return connection;
+            } catch (Exception e) {
+                selector.onFailed(node);
+                LOG.debug("Cannot connect to SFTP host {} due {}", node, e.getMessage());
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        throw failure;
+    }
+
+    private SftpConnection connect(String host, int port) throws Exception {
+        SftpSession session = reserveSession(host, port);
+        try {
+            ChannelSftp channel = openChannel(session.getSession());
+            LOG.debug("Connected to {}:{}", host, port);
+            return new SftpConnection(session, channel);
+        } catch (Exception e) {
+            if (!session.getSession().isConnected()) {
+                session.markBroken();
+            }
+            session.releaseChannel();
+            throw e;
+        }
+    }
+
+    /**
+     * The circuit breaker guarding the connection attempts, or <tt>null</tt> if every attempt connects.
+     */
+    public SftpCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(SftpCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * The selector spreading the connections over the nodes of a host list, or <tt>null</tt> if every connection is
+     * opened to the configured host.
+     */
+    public SftpHostSelector getHostSelector() {
+        return hostSelector;
+    }
+
+    public void setHostSelector(SftpHostSelector hostSelector) {
+        this.hostSelector = hostSelector;
+    }
+
+    /**
+     * The number of connections that could not be opened, for example because the server refused the session.
+     */
+    public long getConnectFailureCount() {
+        return connectFailures.get();
+    }
+
+    /**
+     * The number of connections found dead by {@link #validateObject(PooledObject)}.
+     */
+    public long getValidationFailureCount() {
+        return validationFailures.get();
+    }
+
+    /**
+     * Reserves a channel slot on an existing session to the host with free capacity, or connects a new session.
+     */
+    private SftpSession reserveSession(String host, int port) throws JSchException {
+        synchronized (sessions) {
+            Iterator<SftpSession> it = sessions.iterator();
+            while (it.hasNext()) {
+                SftpSession candidate = it.next();
+                if (candidate.isClosed() || candidate.isBroken()) {
+                    it.remove();
+                } else if (isSessionTo(candidate, host, port) && candidate.tryReserveChannel()) {
+                    LOG.trace("Reusing {} for new SFTP channel", candidate);
+                    return candidate;
+                }
+            }
+        }
+
+        SftpSession session = new SftpSession(connectSession(host, port), channelsPerSession);
+        session.tryReserveChannel();
+        if (channelsPerSession > 1) {
+            synchronized (sessions) {
+                sessions.add(session);
+            }
+        }
+        return session;
+    }
+
+    private static boolean isSessionTo(SftpSession session, String host, int port) {
+        return session.getSession().getPort() == port && host.equals(session.getSession().getHost());
+    }
+
+    private Session connectSession(String host, int port) throws JSchException {
+        LOG.trace("Creating new SFTP connection to {}:{}", host, port);
+
+        Session session = getSessionTemplate().createSession(host, port);
+
         if (configuration.getConnectTimeout() > 0) {
             LOG.trace("Connecting use connectTimeout: {} ...", configuration.getConnectTimeout());
             session.connect(configuration.getConnectTimeout());
@@ -40,7 +194,29 @@ public class SftpConnectionFactory implements PooledObjectFactory<SftpConnection
             LOG.trace("Connecting ...");
             session.connect();
         }
+        return session;
+    }
+
+    /**
+     * The template with the identities, known hosts and session settings resolved once for all connections created
+     * by this factory.
+     */
+    public SftpSessionTemplate getSessionTemplate() throws JSchException {
+        SftpSessionTemplate template = sessionTemplate;
+        if (template == null) {
+            synchronized (this) {
+                template = sessionTemplate;
+                if (template == null) {
+                    LOG.debug("Resolving session template for {}:{}", configuration.getHost(), configuration.getPort());
+                    template = SftpSessionTemplate.create(endpoint, configuration, endpoint.getProxy());
+                    sessionTemplate = template;
+                }
+            }
+        }
+        return template;
+    }
 
+    private ChannelSftp openChannel(Session session) throws JSchException {
         LOG.trace("Session connected, opening SFTP channel");
         ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
 
@@ -57,21 +233,71 @@ public class SftpConnectionFactory implements PooledObjectFactory<SftpConnection
             LOG.trace("Connecting channel ...");
             channel.connect();
         }
-        
+
         Integer bulkRequests = configuration.getBulkRequests();
         if (bulkRequests != null) {
             LOG.trace("configuring channel to use up to {} bulk request(s)", bulkRequests);
             channel.setBulkRequests(bulkRequests);
         }
+        return channel;
+    }
+
+    /**
+     * The number of SSH sessions currently shared by more than one pooled channel slot.
+     */
+    public int getSharedSessionCount() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
 
-        LOG.debug("Connected to {}:{}", configuration.getHost(), configuration.getPort());
-        return new DefaultPooledObject<>(new SftpConnection(session, channel));
+    public int getChannelsPerSession() {
+        return channelsPerSession;
+    }
+
+    /**
+     * Sets the maximum number of SFTP channels opened over a single SSH session. The default of 1 creates a
+     * dedicated session for every pooled connection.
+     */
+    public void setChannelsPerSession(int channelsPerSession) {
+        this.channelsPerSession = Math.max(1, channelsPerSession);
+    }
+
+    public SftpValidationStrategy getValidationStrategy() {
+        return validationStrategy;
+    }
+
+    /**
+     * Sets how {@link #validateObject(PooledObject)} checks that a connection is alive.
+     */
+    public void setValidationStrategy(SftpValidationStrategy validationStrategy) {
+        this.validationStrategy = validationStrategy;
+    }
+
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * Sets the time in millis a connection is trusted after it was last seen working, before the validation
+     * strategy checks it again.
+     */
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
     }
 
     @Override
     public void destroyObject(PooledObject<SftpConnection> p) throws Exception {
         SftpConnection connection = p.getObject();
         LOG.trace("Destroying SFTP connection: {}", connection);
+        SftpHostSelector selector = hostSelector;
+        if (selector != null && connection.getNode() != null) {
+            selector.onClosed(connection.getNode());
+        }
+        if (!connection.getSession().isConnected()) {
+            // the other channels multiplexed over this session are dead as well
+            connection.getSftpSession().markBroken();
+        }
         connection.close();
     }
 
@@ -80,7 +306,35 @@ public class SftpConnectionFactory implements PooledObjectFactory<SftpConnection
         SftpConnection connection = p.getObject();
         boolean connected = connection.isConnected();
         LOG.trace("Validating SFTP connection: {} -> {}", connection, connected);
-        return connected;
+        if (!connected) {
+            if (!connection.getSession().isConnected()) {
+                connection.getSftpSession().markBroken();
+            }
+            validationFailures.incrementAndGet();
+            return false;
+        }
+        if (validationStrategy == SftpValidationStrategy.CONNECTED
+                || connection.getMillisSinceVerified() < validationInterval) {
+            return true;
+        }
+
+        try {
+            if (validationStrategy == SftpValidationStrategy.KEEPALIVE) {
+                connection.getSession().sendKeepAliveMsg();
+            } else {
+                connection.getChannel().realpath(".");
+            }
+            connection.markVerified();
+            return true;
+        } catch (Exception e) {
+            LOG.debug("SFTP connection: {} failed {} validation due {}", connection, validationStrategy, e.getMessage());
+            if (validationStrategy == SftpValidationStrategy.KEEPALIVE || !connection.getSession().isConnected()) {
+                // the other channels multiplexed over this session are dead as well
+                connection.getSftpSession().markBroken();
+            }
+            validationFailures.incrementAndGet();
+            return false;
+        }
     }
 
     @Override
@@ -89,12 +343,16 @@ public class SftpConnectionFactory implements PooledObjectFactory<SftpConnection
         LOG.trace("Activating SFTP connection: {}", connection);
         
         if (!connection.isConnected()) {
+            if (!connection.getSession().isConnected()) {
+                connection.getSftpSession().markBroken();
+            }
             throw new JSchException("Connection is not connected");
         }
     }
 
     @Override
     public void passivateObject(PooledObject<SftpConnection> p) throws Exception {
-        // No-op
+        // connections that fail are invalidated rather than returned, so a returned connection has just worked
+        p.getObject().markVerified();
     }
 }
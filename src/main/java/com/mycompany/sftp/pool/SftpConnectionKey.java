@@ -0,0 +1,112 @@
+package com.mycompany.sftp.pool;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import com.jcraft.jsch.Proxy;
+import org.apache.camel.component.file.remote.SftpConfiguration;
+
+/**
+ * Identifies the SSH server and the authentication/cipher settings a pooled connection was created with.
+ * Endpoints that produce equal keys can safely share the same {@link SftpConnectionPool}.
+ */
+public final class SftpConnectionKey {
+
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String hosts;
+    private final Object[] settings;
+
+    private SftpConnectionKey(String host, int port, String username, String hosts, Object[] settings) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.hosts = hosts;
+        this.settings = settings;
+    }
+
+    public static SftpConnectionKey of(SftpConfiguration configuration, Proxy proxy) {
+        return of(configuration, proxy, null);
+    }
+
+    /**
+     * @param hosts the host list the connections are spread over, <tt>null</tt> if they are opened to the configured
+     *              host
+     */
+    public static SftpConnectionKey of(SftpConfiguration configuration, Proxy proxy, String hosts) {
+        Object[] settings = new Object[] {
+                configuration.getPassword(),
+                configuration.getPrivateKeyFile(),
+                configuration.getPrivateKeyUri(),
+                configuration.getPrivateKey(),
+                configuration.getPrivateKeyPassphrase(),
+                configuration.getKeyPair(),
+                configuration.getKnownHostsFile(),
+                configuration.getKnownHostsUri(),
+                configuration.getKnownHosts(),
+                configuration.isUseUserKnownHostsFile(),
+                configuration.isAutoCreateKnownHostsFile(),
+                configuration.getStrictHostKeyChecking(),
+                configuration.getCiphers(),
+                configuration.getKeyExchangeProtocols(),
+                configuration.getServerHostKeys(),
+                configuration.getPublicKeyAcceptedAlgorithms(),
+                configuration.getPreferredAuthentications(),
+                configuration.getCompression(),
+                configuration.getBindAddress(),
+                configuration.getFilenameEncoding(),
+                configuration.getBulkRequests(),
+                configuration.getConnectTimeout(),
+                configuration.getSoTimeout(),
+                configuration.getServerAliveInterval(),
+                configuration.getServerAliveCountMax(),
+                proxy
+        };
+        return new SftpConnectionKey(configuration.getHost(), configuration.getPort(), configuration.getUsername(),
+                hosts, settings);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getHosts() {
+        return hosts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SftpConnectionKey)) {
+            return false;
+        }
+        SftpConnectionKey that = (SftpConnectionKey) o;
+        return port == that.port
+                && Objects.equals(host, that.host)
+                && Objects.equals(username, that.username)
+                && Objects.equals(hosts, that.hosts)
+                && Arrays.deepEquals(settings, that.settings);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(host, port, username, hosts) + Arrays.deepHashCode(settings);
+    }
+
+    @Override
+    public String toString() {
+        // never include credentials
+        return hosts != null ? username + "@" + hosts : username + "@" + host + ":" + port;
+    }
+}
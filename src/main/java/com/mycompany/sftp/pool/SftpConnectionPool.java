@@ -1,14 +1,189 @@
 package com.mycompany.sftp.pool;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.pool2.DestroyMode;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A typed connection pool for SFTP connections.
  */
 public class SftpConnectionPool extends GenericObjectPool<SftpConnection> {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SftpConnectionPool.class);
+
+    private volatile RemoteDirectoryCache directoryCache;
+    private volatile AdaptivePoolController adaptiveController;
+    private final SftpBulkheads bulkheads = new SftpBulkheads(this);
+    private final AtomicLong invalidated = new AtomicLong();
+
     public SftpConnectionPool(SftpConnectionFactory factory, GenericObjectPoolConfig<SftpConnection> config) {
         super(factory, config);
     }
+
+    /**
+     * The remote directories known to exist on the server of this pool, or <tt>null</tt> if they are not cached.
+     */
+    public RemoteDirectoryCache getDirectoryCache() {
+        return directoryCache;
+    }
+
+    public void setDirectoryCache(RemoteDirectoryCache directoryCache) {
+        this.directoryCache = directoryCache;
+    }
+
+    /**
+     * The controller adapting maxTotal of this pool to the observed load, or <tt>null</tt> if the size is static.
+     */
+    public AdaptivePoolController getAdaptiveController() {
+        return adaptiveController;
+    }
+
+    public void setAdaptiveController(AdaptivePoolController adaptiveController) {
+        this.adaptiveController = adaptiveController;
+    }
+
+    /**
+     * The bulkhead partitions of this pool.
+     */
+    public SftpBulkheads getBulkheads() {
+        return bulkheads;
+    }
+
+    /**
+     * Borrows a connection on behalf of the given bulkhead partition, waiting for the partition to be admitted first.
+     * Both waits together are bounded by maxWait.
+     */
+    public SftpConnection borrowObject(SftpBulkheads.Partition partition) throws Exception {
+        Duration maxWait = getMaxWaitDuration();
+        long start = System.nanoTime();
+        if (partition == null || !bulkheads.acquire(partition, maxWait)) {
+            return borrowObject();
+        }
+        try {
+            SftpConnection connection = maxWait.isNegative()
+                    ? borrowObject(maxWait)
+                    : borrowObject(Duration.ofNanos(Math.max(0, maxWait.toNanos() - (System.nanoTime() - start))));
+            connection.setPartition(partition);
+            return connection;
+        } catch (Exception e) {
+            bulkheads.release(partition);
+            throw e;
+        }
+    }
+
+    @Override
+    public SftpConnection borrowObject(Duration borrowMaxWaitDuration) throws Exception {
+        long start = System.nanoTime();
+        SftpConnection connection = super.borrowObject(borrowMaxWaitDuration);
+        long now = System.nanoTime();
+        connection.markBorrowed(now);
+        AdaptivePoolController controller = adaptiveController;
+        if (controller != null) {
+            controller.recordBorrow(now - start, getNumActive());
+        }
+        return connection;
+    }
+
+    @Override
+    public void returnObject(SftpConnection connection) {
+        AdaptivePoolController controller = adaptiveController;
+        if (controller != null) {
+            controller.recordOperation(connection.getNanosSinceBorrowed(System.nanoTime()));
+        }
+        SftpBulkheads.Partition partition = connection.takePartition();
+        try {
+            super.returnObject(connection);
+        } finally {
+            if (partition != null) {
+                bulkheads.release(partition);
+            }
+        }
+    }
+
+    @Override
+    public void invalidateObject(SftpConnection connection, DestroyMode destroyMode) throws Exception {
+        SftpBulkheads.Partition partition = connection.takePartition();
+        invalidated.incrementAndGet();
+        try {
+            super.invalidateObject(connection, destroyMode);
+        } finally {
+            if (partition != null) {
+                bulkheads.release(partition);
+            }
+        }
+    }
+
+    /**
+     * The number of borrowed connections invalidated, as an operation on them failed.
+     */
+    public long getInvalidatedCount() {
+        return invalidated.get();
+    }
+
+    @Override
+    public void close() {
+        AdaptivePoolController controller = adaptiveController;
+        if (controller != null) {
+            controller.stop();
+        }
+        super.close();
+    }
+
+    /**
+     * Opens idle connections until the pool holds the given number of connections, capped by maxTotal and maxIdle.
+     * The connections are opened by tasks submitted to the executor, so its number of threads bounds the number of
+     * handshakes in flight.
+     *
+     * @return the number of connections added
+     * @throws Exception the first failure, if no connection could be added at all
+     */
+    public int warmUp(int size, ExecutorService executor) throws Exception {
+        int target = size;
+        if (getMaxTotal() >= 0) {
+            target = Math.min(target, getMaxTotal());
+        }
+        if (getMaxIdle() >= 0) {
+            target = Math.min(target, getMaxIdle());
+        }
+        int missing = target - getNumIdle() - getNumActive();
+        if (missing <= 0) {
+            return 0;
+        }
+
+        List<Future<?>> tasks = new ArrayList<>(missing);
+        for (int i = 0; i < missing; i++) {
+            tasks.add(executor.submit(() -> {
+                addObject();
+                return null;
+            }));
+        }
+
+        int added = 0;
+        Exception failure = null;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+                added++;
+            } catch (ExecutionException e) {
+                LOG.debug("Cannot open connection while warming up pool due {}", e.getCause().getMessage());
+                if (failure == null && e.getCause() instanceof Exception) {
+                    failure = (Exception) e.getCause();
+                }
+            }
+        }
+        if (added == 0 && failure != null) {
+            throw failure;
+        }
+        return added;
+    }
 }
@@ -0,0 +1,168 @@
+package com.mycompany.sftp.pool;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reference counted registry of {@link SftpConnectionPool}s, keyed by {@link SftpConnectionKey}.
+ * <p>
+ * Endpoints that target the same server with the same credentials share one pool, provided they also agree on the
+ * settings of the pool. The pool is closed when the last endpoint holding a reference releases it.
+ */
+public class SftpConnectionPoolRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SftpConnectionPoolRegistry.class);
+
+    private final Map<SftpConnectionKey, Entry> pools = new HashMap<>();
+
+    /**
+     * Returns the pool registered for the given key, creating it with the supplier if this is the first reference.
+     *
+     * @param  settings                 the pool settings of the endpoint, which must equal those of the endpoint that
+     *                                  created the pool
+     * @throws IllegalArgumentException if the pool exists with other settings, as the endpoint would silently lose
+     *                                  its own
+     */
+    public synchronized SftpConnectionPool acquire(SftpConnectionKey key, Object settings,
+                                                   Supplier<SftpConnectionPool> poolSupplier) {
+        Entry entry = pools.get(key);
+        if (entry == null || entry.pool.isClosed()) {
+            LOG.debug("Creating shared SFTP connection pool for {}", key);
+            entry = new Entry(poolSupplier.get(), settings);
+            pools.put(key, entry);
+        } else if (!Objects.equals(entry.settings, settings)) {
+            throw new IllegalArgumentException("Cannot share the SFTP connection pool for " + key
+                                               + " as it was created with other pool settings: " + entry.settings
+                                               + " instead of: " + settings
+                                               + ". Use the same pool settings, or set sharedPool=false");
+        }
+        entry.references++;
+        LOG.trace("Acquired shared SFTP connection pool for {} (references: {})", key, entry.references);
+        return entry.pool;
+    }
+
+    /**
+     * Releases one reference to the pool registered for the given key, closing the pool when no references remain.
+     */
+    public synchronized void release(SftpConnectionKey key) {
+        Entry entry = pools.get(key);
+        if (entry == null) {
+            return;
+        }
+        entry.references--;
+        LOG.trace("Released shared SFTP connection pool for {} (references: {})", key, entry.references);
+        if (entry.references <= 0) {
+            pools.remove(key);
+            LOG.debug("Closing shared SFTP connection pool for {}", key);
+            entry.pool.close();
+        }
+    }
+
+    /**
+     * Closes all registered pools regardless of their reference count.
+     */
+    public synchronized void closeAll() {
+        for (Map.Entry<SftpConnectionKey, Entry> e : pools.entrySet()) {
+            LOG.debug("Closing shared SFTP connection pool for {}", e.getKey());
+            e.getValue().pool.close();
+        }
+        pools.clear();
+    }
+
+    public synchronized int size() {
+        return pools.size();
+    }
+
+    /**
+     * A point in time snapshot of the statistics of every registered pool.
+     */
+    public synchronized Map<SftpConnectionKey, Stats> getStats() {
+        Map<SftpConnectionKey, Stats> answer = new LinkedHashMap<>();
+        for (Map.Entry<SftpConnectionKey, Entry> e : pools.entrySet()) {
+            answer.put(e.getKey(), new Stats(e.getValue().references, e.getValue().pool));
+        }
+        return answer;
+    }
+
+    private static final class Entry {
+        private final SftpConnectionPool pool;
+        private final Object settings;
+        private int references;
+
+        private Entry(SftpConnectionPool pool, Object settings) {
+            this.pool = pool;
+            this.settings = settings;
+        }
+    }
+
+    /**
+     * Statistics of a shared pool.
+     */
+    public static final class Stats {
+
+        private final int references;
+        private final int numActive;
+        private final int numIdle;
+        private final int numWaiters;
+        private final long createdCount;
+        private final long destroyedCount;
+        private final long borrowedCount;
+        private final long returnedCount;
+
+        Stats(int references, SftpConnectionPool pool) {
+            this.references = references;
+            this.numActive = pool.getNumActive();
+            this.numIdle = pool.getNumIdle();
+            this.numWaiters = pool.getNumWaiters();
+            this.createdCount = pool.getCreatedCount();
+            this.destroyedCount = pool.getDestroyedCount();
+            this.borrowedCount = pool.getBorrowedCount();
+            this.returnedCount = pool.getReturnedCount();
+        }
+
+        public int getReferences() {
+            return references;
+        }
+
+        public int getNumActive() {
+            return numActive;
+        }
+
+        public int getNumIdle() {
+            return numIdle;
+        }
+
+        public int getNumWaiters() {
+            return numWaiters;
+        }
+
+        public long getCreatedCount() {
+            return createdCount;
+        }
+
+        public long getDestroyedCount() {
+            return destroyedCount;
+        }
+
+        public long getBorrowedCount() {
+            return borrowedCount;
+        }
+
+        public long getReturnedCount() {
+            return returnedCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats[references=" + references + ", active=" + numActive + ", idle=" + numIdle
+                   + ", waiters=" + numWaiters + ", created=" + createdCount + ", destroyed=" + destroyedCount
+                   + ", borrowed=" + borrowedCount + ", returned=" + returnedCount + "]";
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.mycompany.sftp.pool;
+
+/**
+ * How the {@link SftpHostSelector} picks the node a new connection is opened to.
+ */
+public enum SftpHostSelection {
+
+    /**
+     * Picks the node with the fewest open connections relative to its weight, so slower nodes, which keep their
+     * connections busy for longer, are given fewer new ones.
+     */
+    LEAST_ACTIVE,
+
+    /**
+     * Spreads new connections over the nodes in proportion to their weights, interleaved rather than in bursts.
+     */
+    WEIGHTED_ROUND_ROBIN
+}
@@ -0,0 +1,348 @@
+package com.mycompany.sftp.pool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads the connections of a {@link SftpConnectionFactory} over the equivalent nodes of a clustered SFTP server.
+ * <p>
+ * Each new connection is opened to the node picked by the {@link SftpHostSelection}. The health of every node is
+ * tracked: after a number of consecutive failed connects the node is ejected, and no connections are opened to it
+ * until its jittered ejection backoff has elapsed. It is then re-admitted on probation: its first failed connect
+ * ejects it again for twice as long, up to the maximum backoff, while its first successful connect ends the probation
+ * and resets the backoff. A re-admitted node gets a share of the new connections that ramps up from a tenth of its
+ * weight to its full weight over the slow start period, so a node that just came back is not flooded.
+ * <p>
+ * While every node is ejected, the node that comes back soonest is still tried, so the factory keeps failing with the
+ * real cause of the outage; the {@link SftpCircuitBreaker} of the factory is the one to fail fast then.
+ */
+public class SftpHostSelector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SftpHostSelector.class);
+
+    private static final double MIN_SLOW_START_RATIO = 0.1;
+
+    private final List<Node> nodes;
+    private final SftpHostSelection selection;
+    private final int ejectionThreshold;
+    private final long baseEjectionMillis;
+    private final long maxEjectionMillis;
+    private final long slowStartNanos;
+    private int next;
+
+    /**
+     * @param hosts              comma separated list of <tt>host[:port][*weight]</tt>, IPv6 addresses in brackets
+     * @param defaultPort        the port of the nodes listed without one
+     * @param selection          how the node of a new connection is picked
+     * @param ejectionThreshold  consecutive failed connects that eject a node, 0 to never eject nodes
+     * @param ejectionMillis     how long a node is ejected the first time
+     * @param maxEjectionMillis  the longest a node is ejected
+     * @param slowStartMillis    how long the share of a re-admitted node ramps up, 0 to give it its full share at once
+     * @throws IllegalArgumentException if the host list is empty or malformed
+     */
+    public SftpHostSelector(String hosts, int defaultPort, SftpHostSelection selection, int ejectionThreshold,
+                            long ejectionMillis, long maxEjectionMillis, long slowStartMillis) {
+        this.nodes = Collections.unmodifiableList(parse(hosts, defaultPort));
+        this.selection = selection != null ? selection : SftpHostSelection.LEAST_ACTIVE;
+        this.ejectionThreshold = ejectionThreshold;
+        this.baseEjectionMillis = Math.max(1, ejectionMillis);
+        this.maxEjectionMillis = Math.max(this.baseEjectionMillis, maxEjectionMillis);
+        this.slowStartNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, slowStartMillis));
+        for (Node node : nodes) {
+            node.ejectionMillis = this.baseEjectionMillis;
+        }
+    }
+
+    static List<Node> parse(String hosts, int defaultPort) {
+        List<Node> answer = new ArrayList<>();
+        if (hosts != null) {
+            for (String entry : hosts.split(",")) {
+                entry = entry.trim();
+                if (!entry.isEmpty()) {
+                    answer.add(parseNode(entry, defaultPort));
+                }
+            }
+        }
+        if (answer.isEmpty()) {
+            throw new IllegalArgumentException("No SFTP hosts in host list: " + hosts);
+        }
+        return answer;
+    }
+
+    private static Node parseNode(String entry, int defaultPort) {
+        String address = entry;
+        int weight = 1;
+        int star = entry.lastIndexOf('*');
+        if (star >= 0) {
+            address = entry.substring(0, star).trim();
+            weight = parseNumber(entry.substring(star + 1).trim(), "weight", entry);
+            if (weight < 1) {
+                throw new IllegalArgumentException("Weight of SFTP host must be at least 1: " + entry);
+            }
+        }
+
+        String host = address;
+        int port = defaultPort;
+        int portSeparator;
+        if (address.startsWith("[")) {
+            int end = address.indexOf(']');
+            if (end < 0) {
+                throw new IllegalArgumentException("Unterminated IPv6 address of SFTP host: " + entry);
+            }
+            host = address.substring(1, end);
+            portSeparator = address.indexOf(':', end);
+        } else {
+            portSeparator = address.indexOf(':');
+            if (portSeparator >= 0) {
+                host = address.substring(0, portSeparator);
+            }
+        }
+        if (portSeparator >= 0) {
+            port = parseNumber(address.substring(portSeparator + 1).trim(), "port", entry);
+        }
+        if (host.isEmpty()) {
+            throw new IllegalArgumentException("Missing name of SFTP host: " + entry);
+        }
+        return new Node(host, port, weight);
+    }
+
+    private static int parseNumber(String value, String name, String entry) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " of SFTP host: " + entry, e);
+        }
+    }
+
+    /**
+     * Picks the node to open the next connection to, which must be followed by {@link #onConnected(Node)} or
+     * {@link #onFailed(Node)}.
+     *
+     * @param  exclude the nodes already tried for this connection
+     * @return         the node, or <tt>null</tt> if every node is excluded
+     */
+    public synchronized Node select(Set<Node> exclude) {
+        long now = System.nanoTime();
+        List<Node> candidates = new ArrayList<>(nodes.size());
+        Node soonestBack = null;
+        for (Node node : nodes) {
+            if (exclude.contains(node)) {
+                continue;
+            }
+            if (node.ejected && now - node.ejectedUntil >= 0) {
+                readmit(node, now);
+            }
+            if (!node.ejected) {
+                candidates.add(node);
+            } else if (soonestBack == null || node.ejectedUntil - soonestBack.ejectedUntil < 0) {
+                soonestBack = node;
+            }
+        }
+        if (candidates.isEmpty()) {
+            return soonestBack;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        return selection == SftpHostSelection.WEIGHTED_ROUND_ROBIN
+                ? selectRoundRobin(candidates, now) : selectLeastActive(candidates, now);
+    }
+
+    private Node selectLeastActive(List<Node> candidates, long now) {
+        // rotate the start so ties do not always go to the first node listed
+        int start = next++ & Integer.MAX_VALUE;
+        Node answer = null;
+        double lowest = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            Node node = candidates.get((start + i) % candidates.size());
+            double load = (node.active.get() + 1) / effectiveWeight(node, now);
+            if (load < lowest) {
+                lowest = load;
+                answer = node;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Smooth weighted round robin: every node earns its weight per pick, and the richest node is picked and pays the
+     * total, which interleaves the nodes instead of giving each its weight in a row.
+     */
+    private Node selectRoundRobin(List<Node> candidates, long now) {
+        Node answer = null;
+        double total = 0;
+        for (Node node : candidates) {
+            double weight = effectiveWeight(node, now);
+            node.credit += weight;
+            total += weight;
+            if (answer == null || node.credit > answer.credit) {
+                answer = node;
+            }
+        }
+        answer.credit -= total;
+        return answer;
+    }
+
+    private double effectiveWeight(Node node, long now) {
+        if (node.readmittedAt == 0) {
+            return node.weight;
+        }
+        long elapsed = now - node.readmittedAt;
+        if (slowStartNanos == 0 || elapsed >= slowStartNanos) {
+            node.readmittedAt = 0;
+            return node.weight;
+        }
+        return node.weight * Math.max(MIN_SLOW_START_RATIO, elapsed / (double) slowStartNanos);
+    }
+
+    private void readmit(Node node, long now) {
+        LOG.info("Re-admitting SFTP host {} after its ejection of {} ms", node, node.ejectionMillis);
+        node.ejected = false;
+        node.probation = true;
+        node.credit = 0;
+        // never 0, which means not ramping up
+        node.readmittedAt = now | 1;
+    }
+
+    /**
+     * Records a connection opened to the node, which must be followed by {@link #onClosed(Node)} when it is closed.
+     */
+    public synchronized void onConnected(Node node) {
+        if (node.ejected) {
+            // a last resort attempt succeeded before the ejection elapsed
+            readmit(node, System.nanoTime());
+        }
+        node.active.incrementAndGet();
+        node.connects.incrementAndGet();
+        node.consecutiveFailures = 0;
+        node.probation = false;
+        node.ejectionMillis = baseEjectionMillis;
+    }
+
+    public synchronized void onFailed(Node node) {
+        node.failures.incrementAndGet();
+        node.consecutiveFailures++;
+        if (node.ejected) {
+            // a last resort attempt while every node is ejected
+            return;
+        }
+        if (node.probation) {
+            node.ejectionMillis = Math.min(maxEjectionMillis, node.ejectionMillis * 2);
+            eject(node);
+        } else if (ejectionThreshold > 0 && node.consecutiveFailures >= ejectionThreshold) {
+            eject(node);
+        }
+    }
+
+    private void eject(Node node) {
+        long jittered = SftpUtils.jitter(node.ejectionMillis);
+        node.ejectedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(jittered);
+        node.ejected = true;
+        node.probation = false;
+        node.readmittedAt = 0;
+        node.ejections.incrementAndGet();
+        LOG.warn("Ejecting SFTP host {} for {} ms after {} failed connection attempts", node, jittered,
+                node.consecutiveFailures);
+    }
+
+    /**
+     * Records that a connection opened to the node was closed.
+     */
+    public void onClosed(Node node) {
+        node.active.decrementAndGet();
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    public SftpHostSelection getSelection() {
+        return selection;
+    }
+
+    @Override
+    public String toString() {
+        return "SftpHostSelector[" + selection + ", " + nodes + "]";
+    }
+
+    /**
+     * A node of the host list, and its health.
+     */
+    public static final class Node {
+
+        private final String host;
+        private final int port;
+        private final int weight;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong connects = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong ejections = new AtomicLong();
+        private volatile boolean ejected;
+        private boolean probation;
+        private int consecutiveFailures;
+        private long ejectedUntil;
+        private long ejectionMillis;
+        private long readmittedAt;
+        private double credit;
+
+        private Node(String host, int port, int weight) {
+            this.host = host;
+            this.port = port;
+            this.weight = weight;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * The number of open connections to this node.
+         */
+        public int getActive() {
+            return active.get();
+        }
+
+        /**
+         * Whether no connections are opened to this node until its ejection has elapsed.
+         */
+        public boolean isEjected() {
+            return ejected;
+        }
+
+        public long getConnectCount() {
+            return connects.get();
+        }
+
+        public long getFailureCount() {
+            return failures.get();
+        }
+
+        /**
+         * How often the node has been ejected.
+         */
+        public long getEjectionCount() {
+            return ejections.get();
+        }
+
+        @Override
+        public String toString() {
+            return host.indexOf(':') >= 0 ? "[" + host + "]:" + port : host + ":" + port;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.mycompany.sftp.pool;
+
+import com.jcraft.jsch.Session;
+
+/**
+ * A JSCH session shared by one or more pooled {@link SftpConnection}s, each owning its own SFTP channel.
+ * <p>
+ * The session keeps track of the number of channels opened on it and is disconnected when the last channel is
+ * released. Once a session is marked as broken no new channels are opened on it, and all connections using it fail
+ * validation so the pool destroys them.
+ */
+public class SftpSession {
+
+    private final Session session;
+    private final int maxChannels;
+    private int channels;
+    private boolean closed;
+    private volatile boolean broken;
+
+    public SftpSession(Session session, int maxChannels) {
+        this.session = session;
+        this.maxChannels = Math.max(1, maxChannels);
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Reserves a slot for a new channel on this session.
+     *
+     * @return <tt>false</tt> if the session is closed, broken or has no free channel slots
+     */
+    public synchronized boolean tryReserveChannel() {
+        if (closed || !isUsable() || channels >= maxChannels) {
+            return false;
+        }
+        channels++;
+        return true;
+    }
+
+    /**
+     * Releases a channel slot, disconnecting the session when no channels remain.
+     */
+    public synchronized void releaseChannel() {
+        if (channels > 0) {
+            channels--;
+        }
+        if (channels == 0) {
+            closed = true;
+            if (session.isConnected()) {
+                session.disconnect();
+            }
+        }
+    }
+
+    public synchronized int getChannelCount() {
+        return channels;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isUsable() {
+        return !broken && session.isConnected();
+    }
+
+    public boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Marks the session as broken, which invalidates every channel opened on it.
+     */
+    public void markBroken() {
+        broken = true;
+    }
+
+    @Override
+    public String toString() {
+        return "SftpSession[" + session.getUserName() + "@" + session.getHost() + ":" + session.getPort() + "]";
+    }
+}
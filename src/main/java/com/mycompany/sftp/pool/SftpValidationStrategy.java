@@ -0,0 +1,24 @@
+package com.mycompany.sftp.pool;
+
+/**
+ * How the pool checks that an idle connection is still alive.
+ */
+public enum SftpValidationStrategy {
+
+    /**
+     * Only checks that the session and channel are connected. This is free, but does not detect connections silently
+     * dropped by a firewall.
+     */
+    CONNECTED,
+
+    /**
+     * Sends an SSH keepalive message on the session, which fails once the socket is known to be broken.
+     */
+    KEEPALIVE,
+
+    /**
+     * Resolves the current directory with an SFTP <tt>realpath</tt> request and waits for the answer, which detects
+     * half-dead connections at the cost of one round-trip.
+     */
+    PING
+}
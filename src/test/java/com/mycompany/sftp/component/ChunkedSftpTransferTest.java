@@ -0,0 +1,158 @@
+package com.mycompany.sftp.component;
+
+import org.apache.camel.CamelExecutionException;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.file.GenericFileOperationFailedException;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.util.FileUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChunkedSftpTransferTest extends SftpServerTestSupport {
+
+    private static final int PORT = 22224;
+    private static final String SFTP_ROOT = "target/sftp-chunked-root";
+    private static final String WORK_DIR = "target/sftp-chunked-work";
+    private static final int FILE_SIZE = 5 * 1024 * 1024 + 123;
+
+    public ChunkedSftpTransferTest() {
+        super(PORT, SFTP_ROOT);
+    }
+
+    @Override
+    protected void prepareSftpRoot() throws Exception {
+        FileUtil.removeDir(new File(SFTP_ROOT));
+        FileUtil.removeDir(new File(WORK_DIR));
+        new File(SFTP_ROOT, "large").mkdirs();
+        new File(SFTP_ROOT, "upload").mkdirs();
+        new File(WORK_DIR).mkdirs();
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() {
+        return new RouteBuilder() {
+            @Override
+            public void configure() {
+                context.addComponent("pooled-sftp", new PooledSftpComponent());
+
+                from("pooled-sftp://localhost:" + PORT + "/large?username=" + USERNAME + "&password=" + PASSWORD
+                     + "&useConnectionPool=true&strictHostKeyChecking=no&noop=true&delay=60000"
+                     + "&localWorkDirectory=" + WORK_DIR
+                     + "&chunkedDownloadThreshold=1048576&chunkSize=1048576&chunkParallelism=3")
+                    .routeId("chunked-download").autoStartup(false)
+                    .convertBodyTo(byte[].class)
+                    .to("mock:downloaded");
+
+                from("direct:upload")
+                    .to("pooled-sftp://localhost:" + PORT + "/upload?username=" + USERNAME + "&password=" + PASSWORD
+                        + "&useConnectionPool=true&strictHostKeyChecking=no"
+                        + "&chunkedUploadThreshold=1048576&chunkSize=1048576&chunkParallelism=3");
+
+                from("direct:upload-fail")
+                    .to("pooled-sftp://localhost:" + PORT + "/upload?username=" + USERNAME + "&password=" + PASSWORD
+                        + "&useConnectionPool=true&strictHostKeyChecking=no&fileExist=Fail"
+                        + "&chunkedUploadThreshold=1048576&chunkSize=1048576&chunkParallelism=3");
+
+                from("direct:upload-ignore")
+                    .to("pooled-sftp://localhost:" + PORT + "/upload?username=" + USERNAME + "&password=" + PASSWORD
+                        + "&useConnectionPool=true&strictHostKeyChecking=no&fileExist=Ignore"
+                        + "&chunkedUploadThreshold=1048576&chunkSize=1048576&chunkParallelism=3");
+            }
+        };
+    }
+
+    @Test
+    public void testChunkedDownload() throws Exception {
+        byte[] data = new byte[FILE_SIZE];
+        new Random(42).nextBytes(data);
+        Path remote = Paths.get(SFTP_ROOT, "large", "big.bin");
+        Files.write(remote, data);
+
+        // started once the file is complete, so the poll cannot pick up a partial file
+        MockEndpoint mock = getMockEndpoint("mock:downloaded");
+        mock.expectedMessageCount(1);
+        context.getRouteController().startRoute("chunked-download");
+        mock.assertIsSatisfied();
+
+        assertArrayEquals(data, mock.getExchanges().get(0).getIn().getBody(byte[].class));
+
+        // the listing of the only poll plus six ranges, each on its own borrowed connection, where a single stream
+        // borrows one
+        PooledSftpEndpoint endpoint = context.getEndpoints().stream()
+            .filter(e -> e instanceof PooledSftpEndpoint && e.getEndpointUri().contains("/large"))
+            .map(PooledSftpEndpoint.class::cast)
+            .findFirst().orElseThrow();
+        assertTrue(endpoint.getConnectionPool().getBorrowedCount() >= 7);
+    }
+
+    @Test
+    public void testChunkedUploadReplacesExistingFile() throws Exception {
+        byte[] data = new byte[FILE_SIZE];
+        new Random(7).nextBytes(data);
+        Path local = Paths.get(WORK_DIR, "upload.bin");
+        Files.write(local, data);
+        Path remote = Paths.get(SFTP_ROOT, "upload", "big.bin");
+        Files.write(remote, "old content".getBytes());
+
+        template.sendBodyAndHeader("direct:upload", local.toFile(), Exchange.FILE_NAME, "big.bin");
+
+        assertArrayEquals(data, Files.readAllBytes(remote));
+        assertFalse(Files.exists(Paths.get(SFTP_ROOT, "upload", ".big.bin.part")));
+
+        // six ranges plus pre-sizing and the final rename, each on its own borrowed connection
+        PooledSftpEndpoint endpoint = context.getEndpoints().stream()
+            .filter(e -> e instanceof PooledSftpEndpoint && e.getEndpointUri().contains("/upload")
+                && !e.getEndpointUri().contains("fileExist"))
+            .map(PooledSftpEndpoint.class::cast)
+            .findFirst().orElseThrow();
+        assertTrue(endpoint.getConnectionPool().getBorrowedCount() >= 8);
+    }
+
+    @Test
+    public void testChunkedUploadFailsOnExistingFile() throws Exception {
+        Path local = writeLocalFile();
+        Path remote = Paths.get(SFTP_ROOT, "upload", "big.bin");
+        Files.write(remote, "old content".getBytes());
+
+        CamelExecutionException e = assertThrows(CamelExecutionException.class,
+            () -> template.sendBodyAndHeader("direct:upload-fail", local.toFile(), Exchange.FILE_NAME, "big.bin"));
+        assertInstanceOf(GenericFileOperationFailedException.class, e.getCause());
+
+        assertArrayEquals("old content".getBytes(), Files.readAllBytes(remote));
+        assertFalse(Files.exists(Paths.get(SFTP_ROOT, "upload", ".big.bin.part")));
+    }
+
+    @Test
+    public void testChunkedUploadIgnoresExistingFile() throws Exception {
+        Path local = writeLocalFile();
+        Path remote = Paths.get(SFTP_ROOT, "upload", "big.bin");
+        Files.write(remote, "old content".getBytes());
+
+        template.sendBodyAndHeader("direct:upload-ignore", local.toFile(), Exchange.FILE_NAME, "big.bin");
+        assertArrayEquals("old content".getBytes(), Files.readAllBytes(remote));
+
+        // a file that does not exist yet is uploaded
+        template.sendBodyAndHeader("direct:upload-ignore", local.toFile(), Exchange.FILE_NAME, "new.bin");
+        assertArrayEquals(Files.readAllBytes(local), Files.readAllBytes(Paths.get(SFTP_ROOT, "upload", "new.bin")));
+    }
+
+    private static Path writeLocalFile() throws Exception {
+        byte[] data = new byte[FILE_SIZE];
+        new Random(7).nextBytes(data);
+        Path local = Paths.get(WORK_DIR, "upload.bin");
+        Files.write(local, data);
+        return local;
+    }
+}
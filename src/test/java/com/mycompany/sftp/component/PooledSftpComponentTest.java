@@ -1,13 +1,22 @@
 package com.mycompany.sftp.component;
 
+import com.jcraft.jsch.JSch;
 import org.apache.camel.Endpoint;
 import org.apache.camel.component.file.remote.RemoteFileOperations;
 import org.apache.camel.component.file.remote.SftpRemoteFile;
 import org.apache.camel.test.junit5.CamelTestSupport;
 import org.junit.jupiter.api.Test;
 
+import com.mycompany.sftp.pool.SftpConnectionFactory;
+import com.mycompany.sftp.pool.SftpSessionTemplate;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class PooledSftpComponentTest extends CamelTestSupport {
@@ -46,4 +55,72 @@ public class PooledSftpComponentTest extends CamelTestSupport {
         // Should return standard operations (implementation detail: our override calls super if false)
         // Check implementation of PooledSftpEndpoint.createRemoteFileOperations
     }
+
+    @Test
+    public void testEndpointsToSameServerShareConnectionPool() throws Exception {
+        PooledSftpComponent component = new PooledSftpComponent(context);
+        context.addComponent("pooled-sftp", component);
+
+        PooledSftpEndpoint upload = (PooledSftpEndpoint) context.getEndpoint(
+                "pooled-sftp://localhost:22/upload?username=user&password=pass&useConnectionPool=true&sharedPool=true");
+        PooledSftpEndpoint logs = (PooledSftpEndpoint) context.getEndpoint(
+                "pooled-sftp://localhost:22/logs?username=user&password=pass&useConnectionPool=true&sharedPool=true");
+        PooledSftpEndpoint other = (PooledSftpEndpoint) context.getEndpoint(
+                "pooled-sftp://localhost:22/upload?username=other&password=pass&useConnectionPool=true&sharedPool=true");
+
+        assertSame(upload.getConnectionPool(), logs.getConnectionPool());
+        assertNotSame(upload.getConnectionPool(), other.getConnectionPool());
+        assertEquals(2, component.getPoolRegistry().size());
+
+        // the shared pool stays open until the last endpoint using it is stopped
+        upload.stop();
+        assertFalse(logs.getConnectionPool().isClosed());
+        logs.stop();
+        other.stop();
+        assertEquals(0, component.getPoolRegistry().size());
+    }
+
+    @Test
+    public void testSharedPoolRequiresSamePoolSettings() throws Exception {
+        PooledSftpComponent component = new PooledSftpComponent(context);
+        context.addComponent("pooled-sftp", component);
+
+        PooledSftpEndpoint upload = (PooledSftpEndpoint) context.getEndpoint(
+                "pooled-sftp://localhost:22/upload?username=user&password=pass&useConnectionPool=true&sharedPool=true");
+        PooledSftpEndpoint logs = (PooledSftpEndpoint) context.getEndpoint(
+                "pooled-sftp://localhost:22/logs?username=user&password=pass&useConnectionPool=true&sharedPool=true"
+                + "&channelsPerSession=4");
+        PooledSftpEndpoint unshared = (PooledSftpEndpoint) context.getEndpoint(
+                "pooled-sftp://localhost:22/archive?username=user&password=pass&useConnectionPool=true");
+
+        upload.getConnectionPool();
+        // the endpoint would otherwise silently get the pool settings of the first one
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, logs::getConnectionPool);
+        assertTrue(e.getMessage().contains("sharedPool=false"));
+        // not shared by default
+        assertNotSame(upload.getConnectionPool(), unshared.getConnectionPool());
+        assertEquals(1, component.getPoolRegistry().size());
+
+        upload.stop();
+        unshared.stop();
+        assertEquals(0, component.getPoolRegistry().size());
+    }
+
+    @Test
+    public void testSessionTemplateIsResolvedOnce() throws Exception {
+        PooledSftpComponent component = new PooledSftpComponent(context);
+        context.addComponent("pooled-sftp", component);
+
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(
+                "pooled-sftp://localhost:22/upload?username=user&password=pass&useConnectionPool=true&ciphers=aes128-ctr");
+        SftpConnectionFactory factory = (SftpConnectionFactory) endpoint.getConnectionPool().getFactory();
+
+        SftpSessionTemplate template = factory.getSessionTemplate();
+        assertSame(template, factory.getSessionTemplate());
+        assertEquals("aes128-ctr", template.getSessionConfig().get("cipher.c2s"));
+        assertEquals("aes128-ctr", template.createSession().getConfig("cipher.c2s"));
+        // the ciphers only apply to sessions of this endpoint
+        assertNotEquals("aes128-ctr", JSch.getConfig("cipher.c2s"));
+        endpoint.stop();
+    }
 }
@@ -0,0 +1,343 @@
+package com.mycompany.sftp.component;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.spi.Registry;
+import org.apache.camel.util.FileUtil;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.SftpModuleProperties;
+import org.apache.sshd.sftp.server.DirectoryHandle;
+import org.apache.sshd.sftp.server.SftpEventListener;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.junit.jupiter.api.Test;
+
+import com.mycompany.sftp.pool.SftpConnection;
+import com.mycompany.sftp.pool.SftpConnectionPool;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PooledSftpConsumerTest extends SftpServerTestSupport {
+
+    private static final int PORT = 22225;
+    private static final String SFTP_ROOT = "target/sftp-consumer-root";
+    private static final int FILE_COUNT = 120;
+    private static final int PARTNERS = 12;
+    private static final int OUTBOX_COUNT = 24;
+    private static final int REPORT_COUNT = 5;
+    private static final int AFFINITY_COUNT = 6;
+    private static final int PINNED_COUNT = 3;
+    private static final String STATE_INDEX = "target/state-index/reports.idx";
+
+    public PooledSftpConsumerTest() {
+        super(PORT, SFTP_ROOT);
+    }
+
+    @Override
+    protected void doPreSetup() throws Exception {
+        // before the consumer opens the index
+        FileUtil.removeDir(new File(STATE_INDEX).getParentFile());
+    }
+
+    // the number of entries the server sent for each listing of the landing directory, in order
+    private final List<AtomicInteger> landingListings = new CopyOnWriteArrayList<>();
+
+    @Override
+    protected void configureSftpServer(SshServer server, SftpSubsystemFactory sftp) {
+        // a few entries per READDIR response, so a listing stopped early does not read the whole directory
+        SftpModuleProperties.MAX_READDIR_DATA_SIZE.set(server, 1024);
+        sftp.addSftpEventListener(new SftpEventListener() {
+            private final Map<DirectoryHandle, AtomicInteger> listings = new ConcurrentHashMap<>();
+
+            @Override
+            public void readEntries(ServerSession session, String remoteHandle, DirectoryHandle localHandle,
+                                    Map<String, Path> entries) {
+                if (localHandle.getFile().endsWith("landing")) {
+                    listings.computeIfAbsent(localHandle, handle -> {
+                        AtomicInteger count = new AtomicInteger();
+                        landingListings.add(count);
+                        return count;
+                    }).addAndGet(entries.size());
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void prepareSftpRoot() throws Exception {
+        FileUtil.removeDir(new File(SFTP_ROOT));
+        File landing = new File(SFTP_ROOT, "landing");
+        landing.mkdirs();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            Files.writeString(new File(landing, "file-" + i + ".txt").toPath(), "data " + i);
+        }
+        // excluded by the include pattern while listing
+        Files.writeString(new File(landing, "ignored.tmp").toPath(), "tmp");
+
+        for (int p = 0; p < PARTNERS; p++) {
+            for (int s = 0; s < 3; s++) {
+                File dir = new File(SFTP_ROOT, "partners/p" + p + "/in" + s);
+                dir.mkdirs();
+                Files.writeString(new File(dir, "order.xml").toPath(), "order " + p + "-" + s);
+            }
+        }
+        // beyond maxDepth
+        new File(SFTP_ROOT, "partners/p0/in0/archive").mkdirs();
+        Files.writeString(new File(SFTP_ROOT, "partners/p0/in0/archive/old.xml").toPath(), "old");
+
+        File outbox = new File(SFTP_ROOT, "outbox");
+        outbox.mkdirs();
+        for (int i = 0; i < OUTBOX_COUNT; i++) {
+            Files.writeString(new File(outbox, String.format("invoice-%02d.csv", i)).toPath(), "invoice " + i);
+        }
+
+        File pinned = new File(SFTP_ROOT, "pinned");
+        pinned.mkdirs();
+        for (int i = 0; i < PINNED_COUNT; i++) {
+            Files.writeString(new File(pinned, "first-" + i + ".txt").toPath(), "first " + i);
+        }
+
+        File affinity = new File(SFTP_ROOT, "affinity");
+        for (int i = 0; i < AFFINITY_COUNT; i++) {
+            File dir = new File(affinity, "d" + i);
+            dir.mkdirs();
+            Files.writeString(new File(dir, "batch.csv").toPath(), "batch " + i);
+        }
+
+        File reports = new File(SFTP_ROOT, "reports");
+        reports.mkdirs();
+        for (int i = 0; i < REPORT_COUNT; i++) {
+            Files.writeString(new File(reports, "report-" + i + ".csv").toPath(), "report " + i);
+        }
+    }
+
+    @Override
+    protected void bindToRegistry(Registry registry) {
+        // a single connection, waited for without a timeout
+        GenericObjectPoolConfig<SftpConnection> single = new GenericObjectPoolConfig<>();
+        single.setMaxTotal(1);
+        single.setMaxWait(Duration.ofMillis(-1));
+        registry.bind("singleConnection", single);
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() {
+        return new RouteBuilder() {
+            @Override
+            public void configure() {
+                context.addComponent("pooled-sftp", new PooledSftpComponent());
+
+                from("pooled-sftp://localhost:" + PORT + "/landing?username=" + USERNAME + "&password=" + PASSWORD
+                     + "&useConnectionPool=true&strictHostKeyChecking=no&noop=true&delay=50"
+                     + "&include=.*\\.txt&maxMessagesPerPoll=40&listingPageSize=32")
+                    .routeId("incremental-listing")
+                    .to("mock:listed");
+
+                from("pooled-sftp://localhost:" + PORT + "/partners?username=" + USERNAME + "&password=" + PASSWORD
+                     + "&useConnectionPool=true&strictHostKeyChecking=no&noop=true&delay=50"
+                     + "&recursive=true&maxDepth=3&preSort=true&walkParallelism=4")
+                    .routeId("parallel-walk")
+                    .to("mock:walked");
+
+                from("pooled-sftp://localhost:" + PORT + "/outbox?username=" + USERNAME + "&password=" + PASSWORD
+                     + "&useConnectionPool=true&strictHostKeyChecking=no&delay=50"
+                     + "&preSort=true&move=.done&downloadParallelism=4")
+                    .routeId("parallel-download")
+                    .process(exchange -> exchange.getIn().setHeader("thread", Thread.currentThread().getName()))
+                    .to("mock:downloaded");
+
+                from("pooled-sftp://localhost:" + PORT + "/pinned?username=" + USERNAME + "&password=" + PASSWORD
+                     + "&useConnectionPool=true&strictHostKeyChecking=no&initialDelay=0&delay=3600000"
+                     + "&move=.done&pollAffinity=true")
+                    .routeId("poll-affinity").autoStartup(false)
+                    .to("mock:pinned");
+
+                from("pooled-sftp://localhost:" + PORT + "/affinity?username=" + USERNAME + "&password=" + PASSWORD
+                     + "&useConnectionPool=true&strictHostKeyChecking=no&noop=true&delay=50&poolConfig=#singleConnection"
+                     + "&pollAffinity=true&recursive=true&walkParallelism=2&downloadParallelism=2")
+                    .routeId("affinity-parallel").autoStartup(false)
+                    .to("mock:affinity");
+
+                from("pooled-sftp://localhost:" + PORT + "/reports?username=" + USERNAME + "&password=" + PASSWORD
+                     + "&useConnectionPool=true&strictHostKeyChecking=no&noop=true&idempotent=false&delay=50"
+                     + "&remoteStateIndexFile=" + STATE_INDEX)
+                    .routeId("indexed-poll")
+                    .to("mock:indexed");
+            }
+        };
+    }
+
+    @Test
+    public void testIncrementalListing() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:listed");
+        mock.expectedMessageCount(FILE_COUNT);
+        mock.assertIsSatisfied();
+
+        Set<String> names = new HashSet<>();
+        for (Exchange exchange : mock.getExchanges()) {
+            names.add(exchange.getIn().getHeader(Exchange.FILE_NAME, String.class));
+            assertTrue(exchange.getProperty(Exchange.BATCH_SIZE, Integer.class) <= 40);
+        }
+        assertEquals(FILE_COUNT, names.size());
+
+        // the first poll stops listing once it has collected maxMessagesPerPoll files, so the server does not send
+        // the rest of the directory
+        int firstListing = landingListings.get(0).get();
+        assertTrue(firstListing >= 40, "listed " + firstListing);
+        assertTrue(firstListing < FILE_COUNT, "listed " + firstListing);
+    }
+
+    @Test
+    public void testParallelRecursiveWalk() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:walked");
+        mock.expectedMessageCount(PARTNERS * 3);
+        mock.assertIsSatisfied();
+
+        // visited in the same depth-first order as a sequential walk of the sorted listings
+        List<String> expected = new ArrayList<>();
+        for (int p = 0; p < PARTNERS; p++) {
+            for (int s = 0; s < 3; s++) {
+                expected.add("p" + p + "/in" + s + "/order.xml");
+            }
+        }
+        expected.sort(null);
+        List<String> actual = new ArrayList<>();
+        for (Exchange exchange : mock.getExchanges()) {
+            actual.add(exchange.getIn().getHeader(Exchange.FILE_NAME, String.class));
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testParallelDownloadWithOrderedHandOff() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:downloaded");
+        mock.expectedMessageCount(OUTBOX_COUNT);
+        mock.assertIsSatisfied();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < OUTBOX_COUNT; i++) {
+            expected.add(String.format("invoice-%02d.csv", i));
+        }
+        List<String> actual = new ArrayList<>();
+        for (int i = 0; i < OUTBOX_COUNT; i++) {
+            Exchange exchange = mock.getExchanges().get(i);
+            actual.add(exchange.getIn().getHeader(Exchange.FILE_NAME, String.class));
+            assertEquals("invoice " + i, exchange.getIn().getBody(String.class));
+            assertTrue(exchange.getIn().getHeader("thread", String.class).contains("PooledSftpDownload"));
+        }
+        // retrieved concurrently, but handed to the route in the order of the poll
+        assertEquals(expected, actual);
+
+        // every file was committed on its own
+        File done = new File(SFTP_ROOT, "outbox/.done");
+        for (String name : expected) {
+            File moved = new File(done, name);
+            for (int i = 0; i < 50 && !moved.exists(); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(moved.exists(), "Not moved: " + name);
+        }
+    }
+
+    @Test
+    public void testRemoteStateIndexOnlyEmitsNewAndChangedFiles() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:indexed");
+        mock.expectedMessageCount(REPORT_COUNT);
+        mock.assertIsSatisfied();
+        RemoteStateIndex index = ((PooledSftpConsumer) context.getRoute("indexed-poll").getConsumer())
+                .getRemoteStateIndex();
+        for (int i = 0; i < 50 && index.size() < REPORT_COUNT; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(REPORT_COUNT, index.size());
+
+        // without an idempotent repository, only the changed file is picked up again
+        mock.reset();
+        mock.expectedBodiesReceived("report 0, revised");
+        Files.writeString(Paths.get(SFTP_ROOT, "reports/report-0.csv"), "report 0, revised");
+        mock.assertIsSatisfied();
+        Thread.sleep(300);
+        assertEquals(1, mock.getReceivedCounter());
+
+        // the index survives a restart of the consumer
+        context.getRouteController().stopRoute("indexed-poll");
+        assertTrue(new File(STATE_INDEX).length() > 0);
+        mock.reset();
+        mock.expectedMessageCount(0);
+        context.getRouteController().startRoute("indexed-poll");
+        index = ((PooledSftpConsumer) context.getRoute("indexed-poll").getConsumer()).getRemoteStateIndex();
+        for (int i = 0; i < 100 && index.getSkippedCount() < REPORT_COUNT; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(index.getSkippedCount() >= REPORT_COUNT);
+        mock.assertIsSatisfied();
+
+        // deleted files are removed from the index
+        Files.delete(Paths.get(SFTP_ROOT, "reports/report-4.csv"));
+        for (int i = 0; i < 50 && index.size() > REPORT_COUNT - 1; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(REPORT_COUNT - 1, index.size());
+    }
+
+    @Test
+    public void testPollAffinityUsesOneConnectionPerPoll() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:pinned");
+        mock.expectedMessageCount(PINNED_COUNT);
+        context.getRouteController().startRoute("poll-affinity");
+        mock.assertIsSatisfied();
+        PooledSftpConsumer consumer = (PooledSftpConsumer) context.getRoute("poll-affinity").getConsumer();
+        SftpConnectionPool pool = consumer.getEndpoint().getConnectionPool();
+        for (int i = 0; i < 50 && pool.getNumActive() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, pool.getNumActive());
+
+        // the scheduled poll waits an hour, so these polls run on the test thread
+        for (int poll = 0; poll < 2; poll++) {
+            for (int i = 0; i < PINNED_COUNT; i++) {
+                Files.writeString(Paths.get(SFTP_ROOT, "pinned/next-" + poll + "-" + i + ".txt"), "next " + i);
+            }
+            long borrowed = pool.getBorrowedCount();
+            assertEquals(PINNED_COUNT, consumer.poll());
+
+            // listed, retrieved and moved over a single borrowed connection, returned once the poll is done
+            assertEquals(borrowed + 1, pool.getBorrowedCount());
+            assertEquals(0, pool.getNumActive());
+            for (int i = 0; i < PINNED_COUNT; i++) {
+                assertTrue(Files.exists(Paths.get(SFTP_ROOT, "pinned/.done/next-" + poll + "-" + i + ".txt")));
+            }
+        }
+        assertEquals(PINNED_COUNT * 3, mock.getReceivedCounter());
+    }
+
+    @Test
+    public void testPollAffinityWithParallelWalkAndDownloadOnSingleConnection() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:affinity");
+        mock.expectedMessageCount(AFFINITY_COUNT);
+        context.getRouteController().startRoute("affinity-parallel");
+
+        // the poll returns its pinned connection before the walker and download threads borrow the only one
+        mock.assertIsSatisfied();
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getRoute("affinity-parallel").getEndpoint();
+        context.getRouteController().stopRoute("affinity-parallel");
+        assertEquals(0, endpoint.getConnectionPool().getNumActive());
+    }
+}
@@ -1,61 +1,72 @@
 package com.mycompany.sftp.component;
 
+import org.apache.camel.CamelExecutionException;
+import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.file.GenericFile;
 import org.apache.camel.component.mock.MockEndpoint;
-import org.apache.camel.test.junit5.CamelTestSupport;
-import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
-import org.apache.sshd.server.SshServer;
-import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
-import org.apache.sshd.sftp.server.SftpSubsystemFactory;
-import org.apache.sshd.scp.server.ScpCommandFactory;
-import org.junit.jupiter.api.AfterEach;
-import org.junit.jupiter.api.BeforeEach;
+import org.apache.camel.health.HealthCheck;
+import org.apache.camel.health.HealthCheckRegistry;
+import org.apache.camel.util.FileUtil;
 import org.junit.jupiter.api.Test;
 
+import com.mycompany.sftp.metrics.SftpEndpointMetrics;
+import com.mycompany.sftp.pool.AdaptivePoolController;
+import com.mycompany.sftp.pool.RemoteDirectoryCache;
+import com.mycompany.sftp.pool.SftpBulkheads;
+import com.mycompany.sftp.pool.SftpCircuitBreaker;
+import com.mycompany.sftp.pool.SftpCircuitOpenException;
+import com.mycompany.sftp.pool.SftpConnection;
+import com.mycompany.sftp.pool.SftpConnectionFactory;
+import com.mycompany.sftp.pool.SftpConnectionPool;
+import com.mycompany.sftp.pool.SftpHostSelector;
+import com.mycompany.sftp.pool.SftpSession;
+
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
-public class PooledSftpRouteTest extends CamelTestSupport {
+public class PooledSftpRouteTest extends SftpServerTestSupport {
 
-    private SshServer sshd;
     private static final int PORT = 22222;
-    private static final String USERNAME = "test";
-    private static final String PASSWORD = "password";
     private static final String SFTP_ROOT = "target/sftp-root";
 
-    @BeforeEach
-    public void setUpSftpServer() throws Exception {
-        // Setup directories
-        File root = new File(SFTP_ROOT);
-        root.mkdirs();
-        new File(root, "final").mkdirs();
-
-        sshd = SshServer.setUpDefaultServer();
-        sshd.setPort(PORT);
-        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(Paths.get("target/hostkey.ser")));
-        
-        sshd.setPasswordAuthenticator((username, password, session) -> 
-            USERNAME.equals(username) && PASSWORD.equals(password));
-
-        sshd.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
-        sshd.setCommandFactory(new ScpCommandFactory());
-        
-        // Virtual File System to confine the server to target/sftp-root
-        VirtualFileSystemFactory fileSystemFactory = new VirtualFileSystemFactory(Paths.get(SFTP_ROOT));
-        sshd.setFileSystemFactory(fileSystemFactory);
-
-        sshd.start();
-    }
-
-    @AfterEach
-    public void tearDownSftpServer() throws Exception {
-        if (sshd != null) {
-            sshd.stop();
-        }
+    public PooledSftpRouteTest() {
+        super(PORT, SFTP_ROOT);
+        // the endpoint metrics are registered through the management strategy of Camel
+        testConfiguration().withEnableJMX();
+    }
+
+    @Override
+    protected void prepareSftpRoot() {
+        new File(SFTP_ROOT, "final").mkdirs();
     }
 
     @Override
@@ -92,4 +103,543 @@ public class PooledSftpRouteTest extends CamelTestSupport {
         File uploadedFile = new File(SFTP_ROOT + "/final/test-file.txt");
         assertTrue(uploadedFile.exists(), "File should have been uploaded to the SFTP server root/final");
     }
+
+    @Test
+    public void testPoolWarmUp() throws Exception {
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint("pooled-sftp://localhost:" + PORT
+            + "/final?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&warmUpSize=3&warmUpConcurrency=2");
+        endpoint.start();
+
+        assertEquals(3, endpoint.getConnectionPool().getNumIdle());
+        assertTrue(endpoint.getWarmUpDuration() >= 0);
+        endpoint.stop();
+    }
+
+    @Test
+    public void testPingValidationOfIdleConnections() throws Exception {
+        context.getRouteController().stopRoute("test-sftp-route");
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint("pooled-sftp://localhost:" + PORT
+            + "/final?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&warmUpSize=2&validationStrategy=PING&validationInterval=0");
+        endpoint.start();
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        assertTrue(pool.getTestWhileIdle());
+
+        pool.evict();
+        assertEquals(2, pool.getNumIdle());
+        assertEquals(0, pool.getDestroyedByEvictorCount());
+
+        // once the server is gone the evictor drops the idle connections
+        sshd.stop(true);
+        sshd = null;
+        pool.evict();
+        assertEquals(0, pool.getNumIdle());
+        endpoint.stop();
+    }
+
+    @Test
+    public void testChannelsShareSessionUntilItBreaks() throws Exception {
+        context.getRouteController().stopRoute("test-sftp-route");
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint("pooled-sftp://localhost:" + PORT
+            + "/final?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&channelsPerSession=3&validationStrategy=PING&validationInterval=0");
+        endpoint.start();
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+
+        List<SftpConnection> held = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            held.add(pool.borrowObject());
+        }
+        SftpSession shared = held.get(0).getSftpSession();
+        assertSame(shared, held.get(1).getSftpSession());
+        assertSame(shared, held.get(2).getSftpSession());
+        assertEquals(3, shared.getChannelCount());
+        // the session is full, so the fourth channel opens another one
+        assertNotSame(shared, held.get(3).getSftpSession());
+        held.forEach(pool::returnObject);
+
+        // once the shared session is gone, validating any of its channels invalidates all of them
+        shared.getSession().disconnect();
+        pool.evict();
+        assertTrue(shared.isBroken());
+        assertEquals(1, pool.getNumIdle());
+        assertEquals(3, pool.getDestroyedByEvictorCount());
+        assertFalse(shared.tryReserveChannel());
+
+        SftpConnection connection = pool.borrowObject();
+        assertNotSame(shared, connection.getSftpSession());
+        pool.returnObject(connection);
+        endpoint.stop();
+    }
+
+    @Test
+    public void testDirectoryCacheSkipsBuildDirectory() throws Exception {
+        String uri = "pooled-sftp://localhost:" + PORT + "/cached?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&directoryCacheTtl=60000";
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(uri);
+        FileUtil.removeDir(new File(SFTP_ROOT, "cached"));
+
+        template.sendBodyAndHeader(uri, "one", Exchange.FILE_NAME, "one.txt");
+        template.sendBodyAndHeader(uri, "two", Exchange.FILE_NAME, "two.txt");
+        RemoteDirectoryCache cache = endpoint.getConnectionPool().getDirectoryCache();
+        assertEquals(1, cache.getHits());
+        assertTrue(new File(SFTP_ROOT, "cached/two.txt").exists());
+
+        // the directory is removed behind our back, the failed upload makes the cache forget it
+        FileUtil.removeDir(new File(SFTP_ROOT, "cached"));
+        assertThrows(CamelExecutionException.class,
+            () -> template.sendBodyAndHeader(uri, "three", Exchange.FILE_NAME, "three.txt"));
+        assertEquals(0, cache.size());
+
+        template.sendBodyAndHeader(uri, "three", Exchange.FILE_NAME, "three.txt");
+        assertTrue(new File(SFTP_ROOT, "cached/three.txt").exists());
+    }
+
+    @Test
+    public void testAsyncProducerRejectsWhenPoolIsExhausted() throws Exception {
+        String uri = "pooled-sftp://localhost:" + PORT + "/async?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&asyncProducer=true&asyncMaxInFlight=1";
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(uri);
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        pool.setMaxTotal(1);
+        SftpConnection connection = pool.borrowObject();
+
+        // accepted, and waits for the connection on the producer executor rather than on the caller
+        Future<Object> first = template.asyncRequestBodyAndHeader(uri, "first", Exchange.FILE_NAME, "first.txt");
+        for (int i = 0; i < 100 && pool.getNumWaiters() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, pool.getNumWaiters());
+        assertEquals(1, endpoint.getAsyncInFlight());
+
+        CamelExecutionException rejected = assertThrows(CamelExecutionException.class,
+            () -> template.sendBodyAndHeader(uri, "second", Exchange.FILE_NAME, "second.txt"));
+        assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+
+        pool.returnObject(connection);
+        first.get(10, TimeUnit.SECONDS);
+        assertEquals(0, endpoint.getAsyncInFlight());
+        assertTrue(new File(SFTP_ROOT, "async/first.txt").exists());
+        assertFalse(new File(SFTP_ROOT, "async/second.txt").exists());
+    }
+
+    @Test
+    public void testAdaptivePoolSizing() throws Exception {
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint("pooled-sftp://localhost:" + PORT
+            + "/final?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&adaptivePoolSizing=true&adaptiveMinTotal=2"
+            + "&adaptiveInterval=60000");
+        endpoint.start();
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        AdaptivePoolController controller = pool.getAdaptiveController();
+        assertEquals(8, controller.getCurrentMaxTotal());
+
+        // unused capacity is released one connection at a time
+        controller.run();
+        assertEquals(AdaptivePoolController.Decision.DECREASE, controller.getLastDecision());
+        assertEquals(7, pool.getMaxTotal());
+
+        // a queueing borrower grows the pool and gets the new connection
+        List<SftpConnection> held = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            held.add(pool.borrowObject());
+        }
+        CompletableFuture<SftpConnection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrowObject();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        for (int i = 0; i < 100 && pool.getNumWaiters() == 0; i++) {
+            Thread.sleep(50);
+        }
+        controller.run();
+        assertEquals(AdaptivePoolController.Decision.INCREASE, controller.getLastDecision());
+        assertEquals(8, pool.getMaxTotal());
+        held.add(waiting.get(10, TimeUnit.SECONDS));
+        held.forEach(pool::returnObject);
+
+        // connections refused by the server halve the size
+        sshd.stop(true);
+        sshd = null;
+        pool.clear();
+        assertThrows(Exception.class, pool::borrowObject);
+        controller.run();
+        assertEquals(AdaptivePoolController.Decision.BACKOFF, controller.getLastDecision());
+        assertEquals(4, pool.getMaxTotal());
+        assertEquals(1, controller.getBackoffCount());
+        endpoint.stop();
+    }
+
+    @Test
+    public void testCircuitBreakerFailsFastWhileServerIsDown() throws Exception {
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint("pooled-sftp://localhost:" + PORT
+            + "/final?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&circuitBreakerThreshold=2&circuitBreakerBackoff=200");
+        endpoint.start();
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        SftpCircuitBreaker breaker = ((SftpConnectionFactory) pool.getFactory()).getCircuitBreaker();
+
+        sshd.stop(true);
+        assertThrows(Exception.class, pool::borrowObject);
+        assertThrows(Exception.class, pool::borrowObject);
+        assertEquals(SftpCircuitBreaker.State.OPEN, breaker.getState());
+
+        // no connection attempt while open
+        assertThrows(SftpCircuitOpenException.class, pool::borrowObject);
+        assertEquals(2, ((SftpConnectionFactory) pool.getFactory()).getConnectFailureCount());
+
+        // once the server is back a trial connection closes the circuit
+        startSftpServer();
+        Thread.sleep(250);
+        pool.returnObject(pool.borrowObject());
+        assertEquals(SftpCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getOpenCount());
+        endpoint.stop();
+    }
+
+    @Test
+    public void testMaxConcurrentConnectsWaitsForSlotWithoutConnectTimeout() throws Exception {
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint("pooled-sftp://localhost:" + PORT
+            + "/final?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&maxConcurrentConnects=1&connectTimeout=0");
+        endpoint.start();
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        SftpCircuitBreaker breaker = ((SftpConnectionFactory) pool.getFactory()).getCircuitBreaker();
+
+        // a connect timeout of 0 waits for the slot held here instead of failing at once
+        breaker.acquire();
+        CompletableFuture<SftpConnection> borrowed = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrowObject();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(borrowed.isDone());
+        assertEquals(1, breaker.getConnectsInFlight());
+
+        breaker.release();
+        pool.returnObject(borrowed.get(10, TimeUnit.SECONDS));
+        assertEquals(0, breaker.getRejectedCount());
+        assertEquals(0, breaker.getConnectsInFlight());
+        endpoint.stop();
+    }
+
+    @Test
+    public void testBulkheadKeepsReservedConnections() throws Exception {
+        context.getRouteController().stopRoute("test-sftp-route");
+        String uri = "pooled-sftp://localhost:" + PORT + "/final?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false";
+        PooledSftpEndpoint bulk = (PooledSftpEndpoint) context.getEndpoint(uri + "&bulkhead=bulk");
+        bulk.start();
+        SftpConnectionPool pool = bulk.getConnectionPool();
+        SftpBulkheads.Partition bulkPartition = bulk.getBulkhead();
+        SftpBulkheads.Partition heartbeat = pool.getBulkheads().partition("heartbeat", 1, 1, 10);
+
+        // the bulk transfers can take all connections but the reserved one
+        List<SftpConnection> held = new ArrayList<>();
+        for (int i = 0; i < pool.getMaxTotal() - 1; i++) {
+            held.add(pool.borrowObject(bulkPartition));
+        }
+        CompletableFuture<SftpConnection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrowObject(bulkPartition);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        for (int i = 0; i < 100 && bulkPartition.getWaiting() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, bulkPartition.getWaiting());
+
+        SftpConnection reserved = pool.borrowObject(heartbeat);
+        assertEquals(1, heartbeat.getInUse());
+        pool.returnObject(reserved);
+
+        // the reserved connection is not handed to the waiting bulk transfer
+        Thread.sleep(100);
+        assertEquals(1, bulkPartition.getWaiting());
+        pool.returnObject(held.remove(0));
+        held.add(waiting.get(10, TimeUnit.SECONDS));
+        assertEquals(pool.getMaxTotal() - 1, bulkPartition.getInUse());
+
+        held.forEach(pool::returnObject);
+        assertEquals(0, bulkPartition.getInUse());
+        bulk.stop();
+    }
+
+    @Test
+    public void testMetricsAreExposedAsMBeanAndHealthCheck() throws Exception {
+        String uri = "pooled-sftp://localhost:" + PORT + "/metrics?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&metrics=true";
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(uri);
+        endpoint.start();
+        SftpEndpointMetrics metrics = endpoint.getMetrics();
+
+        template.sendBodyAndHeader(uri, "one".getBytes(), Exchange.FILE_NAME, "one.txt");
+        template.sendBodyAndHeader(uri, "three".getBytes(), Exchange.FILE_NAME, "three.txt");
+
+        assertEquals(2, metrics.getStoreCount());
+        assertEquals(8, metrics.getStoreBytes());
+        assertEquals(0, metrics.getStoreFailureCount());
+        assertTrue(metrics.getBorrowCount() >= 2);
+        assertEquals(1, metrics.getPoolCreatedCount());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = metrics.getObjectName();
+        assertEquals(2L, server.getAttribute(name, "StoreCount"));
+        assertEquals(1, server.getAttribute(name, "PoolIdle"));
+
+        HealthCheck check = HealthCheckRegistry.get(context).getCheck(metrics.getEndpointUri()).orElseThrow();
+        assertEquals(HealthCheck.State.UP, check.call().getState());
+
+        endpoint.stop();
+        assertFalse(server.isRegistered(name));
+        assertFalse(HealthCheckRegistry.get(context).getCheck(metrics.getEndpointUri()).isPresent());
+    }
+
+    @Test
+    public void testStreamedRetrieveIsMeasuredWhenReleased() throws Exception {
+        Files.createDirectories(Paths.get(SFTP_ROOT, "streamed"));
+        Files.writeString(Paths.get(SFTP_ROOT, "streamed", "one.txt"), "streamed");
+        String uri = "pooled-sftp://localhost:" + PORT + "/streamed?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&metrics=true&streamDownload=true&noop=true";
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(uri);
+        endpoint.start();
+        SftpEndpointMetrics metrics = endpoint.getMetrics();
+
+        Exchange exchange = consumer.receive(uri, 5000);
+        assertEquals("streamed", exchange.getIn().getBody(String.class));
+        // the stream is open until the exchange is done
+        assertEquals(0, metrics.getRetrieveCount());
+
+        consumer.doneUoW(exchange);
+        assertEquals(1, metrics.getRetrieveCount());
+        assertEquals(8, metrics.getRetrieveBytes());
+        assertEquals(0, metrics.getRetrieveFailureCount());
+        endpoint.stop();
+    }
+
+    @Test
+    public void testStreamedRetrieveLeasesItsConnectionUntilReleased() throws Exception {
+        Files.createDirectories(Paths.get(SFTP_ROOT, "leased"));
+        Files.writeString(Paths.get(SFTP_ROOT, "leased", "one.txt"), "leased");
+        String uri = "pooled-sftp://localhost:" + PORT + "/leased?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&streamDownload=true&noop=true";
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(uri);
+        endpoint.start();
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+
+        Exchange exchange = consumer.receive(uri, 5000);
+        SftpConnection leased = exchange.getProperty(PooledSftpOperations.LEASED_CONNECTION, SftpConnection.class);
+        assertEquals(1, pool.getNumActive());
+
+        // another borrower gets its own channel while the stream is open
+        SftpConnection other = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrowObject();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(5, TimeUnit.SECONDS);
+        assertNotSame(leased.getChannel(), other.getChannel());
+        assertEquals(2, pool.getNumActive());
+        other.getChannel().ls(".");
+        pool.returnObject(other);
+
+        assertEquals("leased", exchange.getIn().getBody(String.class));
+        assertEquals(1, pool.getNumActive());
+        consumer.doneUoW(exchange);
+        assertEquals(0, pool.getNumActive());
+        endpoint.stop();
+    }
+
+    @Test
+    public void testUploadFromFileAndMappedBufferBodies() throws Exception {
+        String uri = "pooled-sftp://localhost:" + PORT + "/direct?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false";
+        byte[] content = new byte[3 * InjectableSftpOperations.TRANSFER_BUFFER_SIZE + 123];
+        new Random(42).nextBytes(content);
+        Path local = Files.write(Paths.get("target/direct-upload.bin"), content);
+
+        template.sendBodyAndHeader(uri, local.toFile(), Exchange.FILE_NAME, "from-file.bin");
+        assertArrayEquals(content, Files.readAllBytes(Paths.get(SFTP_ROOT, "direct/from-file.bin")));
+
+        try (FileChannel channel = FileChannel.open(local, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, content.length);
+            template.sendBodyAndHeader(uri, mapped, Exchange.FILE_NAME, "from-buffer.bin");
+            assertEquals(0, mapped.position());
+        }
+        assertArrayEquals(content, Files.readAllBytes(Paths.get(SFTP_ROOT, "direct/from-buffer.bin")));
+
+        // the store semantics of the endpoint still apply
+        template.sendBodyAndHeader(uri + "&fileExist=Append", ByteBuffer.wrap("tail".getBytes()),
+            Exchange.FILE_NAME, "from-file.bin");
+        assertEquals(content.length + 4, Files.size(Paths.get(SFTP_ROOT, "direct/from-file.bin")));
+    }
+
+    @Test
+    public void testUploadFromFileWithCharsetIsConverted() throws Exception {
+        String uri = "pooled-sftp://localhost:" + PORT + "/direct?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false";
+        Path local = Files.write(Paths.get("target/latin1-upload.txt"), "caf\u00e9".getBytes(StandardCharsets.ISO_8859_1));
+        GenericFile<File> file = new GenericFile<>();
+        file.setFile(local.toFile());
+        file.setFileLength(Files.size(local));
+        // as set by a file: consumer with charset=ISO-8859-1
+        file.setCharset("ISO-8859-1");
+        byte[] expected = "caf\u00e9".getBytes(Charset.defaultCharset());
+
+        // the file is read in its charset by Camel rather than sent as is, by the regular and the chunked upload
+        template.sendBodyAndHeader(uri, file, Exchange.FILE_NAME, "latin1.txt");
+        assertArrayEquals(expected, Files.readAllBytes(Paths.get(SFTP_ROOT, "direct/latin1.txt")));
+        template.sendBodyAndHeader(uri + "&chunkedUploadThreshold=1&chunkSize=2", file, Exchange.FILE_NAME,
+            "latin1-chunked.txt");
+        assertArrayEquals(expected, Files.readAllBytes(Paths.get(SFTP_ROOT, "direct/latin1-chunked.txt")));
+    }
+
+    @Test
+    public void testWriteBehindSpoolDeliversInOrderAfterRestart() throws Exception {
+        context.getRouteController().stopRoute("test-sftp-route");
+        File spoolDir = new File("target/spool");
+        FileUtil.removeDir(spoolDir);
+        FileUtil.removeDir(new File(SFTP_ROOT, "spooled"));
+        String uri = "pooled-sftp://localhost:" + PORT + "/spooled?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&fileExist=Append&spoolDirectory=" + spoolDir.getPath()
+            + "&spoolRetryBackoff=100&spoolMaxRetryBackoff=200";
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(uri);
+        endpoint.start();
+
+        // the route is not held up by the server being down
+        sshd.stop(true);
+        for (int i = 1; i <= 3; i++) {
+            template.sendBodyAndHeader(uri, String.valueOf(i), Exchange.FILE_NAME, "log.txt");
+        }
+        WriteBehindSpool spool = endpoint.getSpool();
+        assertEquals(3, spool.getPendingCount());
+        for (int i = 0; i < 100 && spool.getFailedAttemptCount() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(spool.getFailedAttemptCount() > 0);
+
+        // the spooled files survive a restart, and are delivered once the server is back
+        endpoint.stop();
+        assertEquals(3, spoolDir.list((dir, name) -> name.endsWith(".meta")).length);
+        startSftpServer();
+        endpoint.start();
+        spool = endpoint.getSpool();
+        for (int i = 0; i < 200 && spool.getPendingCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, spool.getPendingCount());
+        assertEquals("123", new String(Files.readAllBytes(Paths.get(SFTP_ROOT, "spooled/log.txt"))));
+        assertEquals(0, spoolDir.list((dir, name) -> name.endsWith(".meta") || name.endsWith(".data")).length);
+        endpoint.stop();
+    }
+
+    @Test
+    public void testWriteBehindSpoolMovesFailingFileToErrorDirectory() throws Exception {
+        context.getRouteController().stopRoute("test-sftp-route");
+        File spoolDir = new File("target/spool-error");
+        FileUtil.removeDir(spoolDir);
+        FileUtil.removeDir(new File(SFTP_ROOT, "spooled-error"));
+        new File(SFTP_ROOT, "spooled-error").mkdirs();
+        Files.write(Paths.get(SFTP_ROOT, "spooled-error/taken.txt"), "old".getBytes());
+        String uri = "pooled-sftp://localhost:" + PORT + "/spooled-error?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&fileExist=Fail&flatten=true&spoolDirectory=" + spoolDir.getPath()
+            + "&spoolRetryBackoff=50&spoolMaxRetryBackoff=100&spoolMaxAttempts=2";
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(uri);
+        endpoint.start();
+
+        // the target name is resolved as by the regular producer, here flattened
+        template.sendBodyAndHeader(uri, "new", Exchange.FILE_NAME, "sub/taken.txt");
+        template.sendBodyAndHeader(uri, "next", Exchange.FILE_NAME, "sub/next.txt");
+
+        // the file that can never be stored does not hold up the next one of its directory
+        WriteBehindSpool spool = endpoint.getSpool();
+        for (int i = 0; i < 100 && spool.getPendingCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, spool.getPendingCount());
+        assertEquals(1, spool.getFailedCount());
+        assertEquals(2, spool.getFailedAttemptCount());
+        assertEquals("old", new String(Files.readAllBytes(Paths.get(SFTP_ROOT, "spooled-error/taken.txt"))));
+        assertEquals("next", new String(Files.readAllBytes(Paths.get(SFTP_ROOT, "spooled-error/next.txt"))));
+        File errorDir = new File(spoolDir, "error");
+        assertEquals(1, errorDir.list((dir, name) -> name.endsWith(".meta")).length);
+        assertEquals(1, errorDir.list((dir, name) -> name.endsWith(".data")).length);
+        endpoint.stop();
+    }
+
+    @Test
+    public void testWriteBehindSpoolMovesExistingFile() throws Exception {
+        context.getRouteController().stopRoute("test-sftp-route");
+        File spoolDir = new File("target/spool-move");
+        FileUtil.removeDir(spoolDir);
+        FileUtil.removeDir(new File(SFTP_ROOT, "spooled-move"));
+        new File(SFTP_ROOT, "spooled-move").mkdirs();
+        Files.write(Paths.get(SFTP_ROOT, "spooled-move/taken.txt"), "old".getBytes());
+        String uri = "pooled-sftp://localhost:" + PORT + "/spooled-move?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&fileExist=Move&moveExisting=${file:name}.old"
+            + "&chunkedUploadThreshold=1&chunkSize=2&spoolDirectory=" + spoolDir.getPath()
+            + "&spoolRetryBackoff=50&spoolMaxAttempts=2";
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(uri);
+        endpoint.start();
+
+        template.sendBodyAndHeader(uri, "new", Exchange.FILE_NAME, "taken.txt");
+
+        // the drain uploads the spooled file in chunks and uses the default strategy to move the existing one aside
+        WriteBehindSpool spool = endpoint.getSpool();
+        for (int i = 0; i < 100 && spool.getPendingCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, spool.getPendingCount());
+        assertEquals(0, spool.getFailedCount());
+        assertEquals("new", new String(Files.readAllBytes(Paths.get(SFTP_ROOT, "spooled-move/taken.txt"))));
+        assertEquals("old", new String(Files.readAllBytes(Paths.get(SFTP_ROOT, "spooled-move/taken.txt.old"))));
+        endpoint.stop();
+    }
+
+    @Test
+    public void testHostListEjectsDeadNode() throws Exception {
+        context.getRouteController().stopRoute("test-sftp-route");
+        int deadPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            deadPort = socket.getLocalPort();
+        }
+        String uri = "pooled-sftp://localhost:" + PORT + "/clustered?username=" + USERNAME + "&password=" + PASSWORD
+            + "&useConnectionPool=true&sharedPool=false&hosts=localhost:" + deadPort + ",localhost:" + PORT
+            + "&hostEjectionThreshold=1&hostEjectionBackoff=60000";
+        PooledSftpEndpoint endpoint = (PooledSftpEndpoint) context.getEndpoint(uri);
+        endpoint.start();
+        SftpConnectionPool pool = endpoint.getConnectionPool();
+        List<SftpHostSelector.Node> nodes = ((SftpConnectionFactory) pool.getFactory()).getHostSelector().getNodes();
+        SftpHostSelector.Node dead = nodes.get(0);
+        SftpHostSelector.Node live = nodes.get(1);
+
+        // the borrows fail over to the live node, and the dead node is only tried until it is ejected
+        List<SftpConnection> held = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            held.add(pool.borrowObject());
+        }
+        assertTrue(dead.isEjected());
+        assertEquals(1, dead.getFailureCount());
+        assertEquals(4, live.getActive());
+        for (SftpConnection connection : held) {
+            assertEquals(live, connection.getNode());
+        }
+        pool.invalidateObject(held.remove(0));
+        assertEquals(3, live.getActive());
+        held.forEach(pool::returnObject);
+
+        template.sendBodyAndHeader(uri, "Hello", Exchange.FILE_NAME, "hello.txt");
+        assertEquals("Hello", new String(Files.readAllBytes(Paths.get(SFTP_ROOT, "clustered/hello.txt"))));
+        assertEquals(1, dead.getFailureCount());
+        endpoint.stop();
+    }
 }
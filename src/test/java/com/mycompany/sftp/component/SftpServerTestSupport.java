@@ -0,0 +1,75 @@
+package com.mycompany.sftp.component;
+
+import org.apache.camel.test.junit5.CamelTestSupport;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.scp.server.ScpCommandFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+
+/**
+ * Runs an embedded SFTP server for each test, confined to a directory and accepting {@link #USERNAME} with
+ * {@link #PASSWORD}.
+ */
+public abstract class SftpServerTestSupport extends CamelTestSupport {
+
+    protected static final String USERNAME = "test";
+    protected static final String PASSWORD = "password";
+
+    protected SshServer sshd;
+    private final int port;
+    private final String sftpRoot;
+
+    protected SftpServerTestSupport(int port, String sftpRoot) {
+        this.port = port;
+        this.sftpRoot = sftpRoot;
+    }
+
+    /**
+     * Prepares the directory of the server before it is started. Does nothing by default.
+     */
+    protected void prepareSftpRoot() throws Exception {
+    }
+
+    /**
+     * Configures the server before it is started. Does nothing by default.
+     */
+    protected void configureSftpServer(SshServer server, SftpSubsystemFactory sftp) {
+    }
+
+    @BeforeEach
+    public void setUpSftpServer() throws Exception {
+        prepareSftpRoot();
+        startSftpServer();
+    }
+
+    /**
+     * Starts the server, also to bring it back after a test stopped it.
+     */
+    protected void startSftpServer() throws Exception {
+        sshd = SshServer.setUpDefaultServer();
+        sshd.setPort(port);
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(Paths.get("target/hostkey.ser")));
+        sshd.setPasswordAuthenticator((username, password, session) ->
+            USERNAME.equals(username) && PASSWORD.equals(password));
+        SftpSubsystemFactory sftp = new SftpSubsystemFactory();
+        sshd.setSubsystemFactories(Collections.singletonList(sftp));
+        sshd.setCommandFactory(new ScpCommandFactory());
+        // an absolute root, as a relative one fails the listings of the server
+        sshd.setFileSystemFactory(new VirtualFileSystemFactory(Paths.get(sftpRoot).toAbsolutePath()));
+        configureSftpServer(sshd, sftp);
+        sshd.start();
+    }
+
+    @AfterEach
+    public void tearDownSftpServer() throws Exception {
+        if (sshd != null) {
+            sshd.stop();
+        }
+    }
+}
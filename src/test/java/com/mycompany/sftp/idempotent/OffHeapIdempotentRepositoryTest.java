@@ -0,0 +1,90 @@
+package com.mycompany.sftp.idempotent;
+
+import org.apache.camel.util.FileUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffHeapIdempotentRepositoryTest {
+
+    @Test
+    public void testBoundedWithLeastRecentlyUsedEviction() throws Exception {
+        OffHeapIdempotentRepository repository = new OffHeapIdempotentRepository(1024);
+        repository.start();
+
+        assertTrue(repository.add("in/a.csv-10-1700000000000"));
+        assertFalse(repository.add("in/a.csv-10-1700000000000"));
+        assertTrue(repository.contains("in/a.csv-10-1700000000000"));
+        assertFalse(repository.contains("in/a.csv-11-1700000000001"));
+        assertTrue(repository.remove("in/a.csv-10-1700000000000"));
+        assertFalse(repository.contains("in/a.csv-10-1700000000000"));
+
+        for (int i = 0; i < 10_000; i++) {
+            repository.add("in/file-" + i + ".csv-" + i + "-1700000000000");
+        }
+        assertEquals(1024, repository.getCacheSize());
+        assertEquals(10_000 - 1024, repository.getEvictionCount());
+
+        repository.clear();
+        assertEquals(0, repository.getCacheSize());
+        repository.stop();
+
+        assertThrows(IllegalStateException.class, () -> repository.add("in/a.csv-10-1700000000000"));
+        assertThrows(IllegalStateException.class, () -> repository.contains("in/a.csv-10-1700000000000"));
+    }
+
+    @Test
+    public void testKeysExpire() throws Exception {
+        OffHeapIdempotentRepository repository = new OffHeapIdempotentRepository(64);
+        repository.setExpireAfter(100);
+        repository.start();
+
+        assertTrue(repository.add("in/a.csv"));
+        assertTrue(repository.contains("in/a.csv"));
+        Thread.sleep(150);
+        assertFalse(repository.contains("in/a.csv"));
+        assertTrue(repository.add("in/a.csv"));
+        assertEquals(1, repository.getCacheSize());
+        repository.stop();
+    }
+
+    @Test
+    public void testKeysSurviveRestartWhenMappedFromFile() throws Exception {
+        File file = new File("target/idempotent/offheap.dat");
+        FileUtil.removeDir(file.getParentFile());
+
+        OffHeapIdempotentRepository repository = new OffHeapIdempotentRepository(4096);
+        repository.setFile(file.getPath());
+        repository.start();
+        for (int i = 0; i < 100; i++) {
+            repository.add("in/file-" + i + ".csv");
+        }
+
+        // the file is locked while the repository is started
+        OffHeapIdempotentRepository other = new OffHeapIdempotentRepository(4096);
+        other.setFile(file.getPath());
+        assertThrows(Exception.class, other::start);
+        repository.stop();
+
+        repository = new OffHeapIdempotentRepository(4096);
+        repository.setFile(file.getPath());
+        repository.start();
+        assertEquals(100, repository.getCacheSize());
+        assertTrue(repository.contains("in/file-42.csv"));
+        assertFalse(repository.contains("in/file-100.csv"));
+        repository.stop();
+
+        // a different size does not reuse the table
+        repository = new OffHeapIdempotentRepository(100_000);
+        repository.setFile(file.getPath());
+        repository.start();
+        assertEquals(0, repository.getCacheSize());
+        assertFalse(repository.contains("in/file-42.csv"));
+        repository.stop();
+    }
+}